@@ -0,0 +1,181 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.mapbox.geojson.BoundingBox;
+import com.mapbox.geojson.FeatureCollection;
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.Polygon;
+import com.mapbox.turf.TurfJoins;
+
+// Data for the benchmarks, so they don't need a web server
+// "synthetic" data is random (but deterministic), "recorded" data is read from a copy of the web server's files on disk
+// (the directory given by -Daqmaps.benchmark.data, laid out like the server: buildings/, maps/YYYY/MM/DD/ and words/)
+final class BenchmarkData {
+
+	// Same confinement area and starting point as the usual App runs
+	static final BoundingBox CONFINEMENT_AREA = BoundingBox.fromLngLats(-3.192473, 55.942617, -3.184319, 55.946233);
+	static final Point START = Point.fromLngLat(-3.1878, 55.9444);
+
+	static final String SYNTHETIC = "synthetic";
+	static final String RECORDED = "recorded";
+	static final String DATA_DIRECTORY_PROPERTY = "aqmaps.benchmark.data";
+
+	// How many no-fly-zones synthetic datasets get (about as many as the real campus)
+	private static final int SYNTHETIC_NO_FLY_ZONES = 4;
+
+	private BenchmarkData() {
+	}
+
+	// Returns count roughly building-sized convex no-fly-zones scattered over the confinement area
+	static List<Polygon> noFlyZones(int count, long seed) {
+		var random = new Random(seed);
+		var noFlyZones = new ArrayList<Polygon>();
+		for (int i = 0; i < count; i++) {
+			double centreLong = randomLongitude(random);
+			double centreLat = randomLatitude(random);
+			double radius = 0.00005 + random.nextDouble() * 0.0003;
+			int corners = 4 + random.nextInt(5);
+
+			var points = new ArrayList<Point>();
+			for (int corner = 0; corner < corners; corner++) {
+				double angle = 2 * Math.PI * corner / corners;
+				points.add(Point.fromLngLat(centreLong + radius * Math.cos(angle), centreLat + radius * Math.sin(angle)));
+			}
+			points.add(points.get(0));  // Polygons are closed
+			noFlyZones.add(Polygon.fromLngLats(List.of(points)));
+		}
+		return noFlyZones;
+	}
+
+	// Returns count random points in the confinement area
+	static List<Point> points(int count, long seed) {
+		var random = new Random(seed);
+		var points = new ArrayList<Point>(count);
+		for (int i = 0; i < count; i++) {
+			points.add(Point.fromLngLat(randomLongitude(random), randomLatitude(random)));
+		}
+		return points;
+	}
+
+	// Returns count random sensors in the confinement area, with made up addresses, batteries and readings
+	static List<Sensor> sensors(int count, long seed) {
+		var random = new Random(seed);
+		var sensors = new ArrayList<Sensor>(count);
+		for (var point : points(count, seed)) {
+			var w3wAddress = String.format("synthetic.sensor.n%d", sensors.size());
+			sensors.add(new Sensor(point, w3wAddress, 100 * random.nextDouble(), 256 * random.nextDouble()));
+		}
+		return sensors;
+	}
+
+	// Returns the no-fly-zones for the source ("synthetic" or "recorded")
+	static List<Polygon> noFlyZones(String source) {
+		if (source.equals(SYNTHETIC)) {
+			return noFlyZones(SYNTHETIC_NO_FLY_ZONES, 1);
+		}
+		var geojson = read(dataDirectory(source).resolve("buildings/no-fly-zones.geojson"));
+		return FeatureCollection.fromJson(geojson).features().stream()
+				.map(feature -> (Polygon) feature.geometry())
+				.collect(Collectors.toList());
+	}
+
+	// Returns count sensors from the source that the drone can actually reach (not inside any of the no-fly-zones)
+	// Recorded sensors are taken from each recorded day in date order until there are enough of them
+	static List<Sensor> reachableSensors(String source, int count, List<Polygon> noFlyZones) {
+		var sensors = new ArrayList<Sensor>(count);
+		if (source.equals(SYNTHETIC)) {
+			long seed = 5;
+			while (sensors.size() < count) {  // Keep drawing until enough land outside the no-fly-zones
+				for (var sensor : sensors(count, seed++)) {
+					if (sensors.size() < count && isReachable(sensor, noFlyZones)) {
+						sensors.add(sensor);
+					}
+				}
+			}
+			return sensors;
+		}
+
+		var directory = dataDirectory(source);
+		for (var day : recordedDays(directory)) {
+			var records = new Gson().fromJson(read(day), JsonObject[].class);
+			for (var record : records) {
+				var sensor = recordedSensor(directory, record);
+				if (sensors.size() < count && isReachable(sensor, noFlyZones)) {
+					sensors.add(sensor);
+				}
+			}
+			if (sensors.size() == count) {
+				return sensors;
+			}
+		}
+		throw new IllegalArgumentException(String.format("The recorded data in %s only has %d sensors, not %d", directory, sensors.size(), count));
+	}
+
+	private static Sensor recordedSensor(Path directory, JsonObject record) {
+		var w3wAddress = record.get("location").getAsString();
+		var details = new Gson().fromJson(read(directory.resolve("words/" + w3wAddress.replace('.', '/') + "/details.json")), JsonObject.class);
+		var coordinates = details.getAsJsonObject("coordinates");
+		var point = Point.fromLngLat(coordinates.get("lng").getAsDouble(), coordinates.get("lat").getAsDouble());
+		double reading;
+		try {
+			reading = Double.parseDouble(record.get("reading").getAsString());
+		} catch (NumberFormatException e) {
+			reading = -1.0;
+		}
+		return new Sensor(point, w3wAddress, record.get("battery").getAsDouble(), reading);
+	}
+
+	private static boolean isReachable(Sensor sensor, List<Polygon> noFlyZones) {
+		return noFlyZones.stream().noneMatch(noFlyZone -> TurfJoins.inside(sensor.getPoint(), noFlyZone));
+	}
+
+	// Returns every maps/YYYY/MM/DD/air-quality-data.json file, in date order
+	private static List<Path> recordedDays(Path directory) {
+		try (var files = Files.walk(directory.resolve("maps"))) {
+			return files.filter(file -> file.getFileName().toString().equals("air-quality-data.json"))
+					.sorted()
+					.collect(Collectors.toList());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static Path dataDirectory(String source) {
+		if (!source.equals(RECORDED)) {
+			throw new IllegalArgumentException(String.format("Unknown data source \"%s\" (expected %s or %s)", source, SYNTHETIC, RECORDED));
+		}
+		var directory = System.getProperty(DATA_DIRECTORY_PROPERTY);
+		if (directory == null) {
+			throw new IllegalArgumentException("Recorded data needs -D" + DATA_DIRECTORY_PROPERTY + "=DIRECTORY");
+		}
+		return Paths.get(directory);
+	}
+
+	private static String read(Path file) {
+		try {
+			return Files.readString(file);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static double randomLongitude(Random random) {
+		return CONFINEMENT_AREA.west() + random.nextDouble() * (CONFINEMENT_AREA.east() - CONFINEMENT_AREA.west());
+	}
+
+	private static double randomLatitude(Random random) {
+		return CONFINEMENT_AREA.south() + random.nextDouble() * (CONFINEMENT_AREA.north() - CONFINEMENT_AREA.south());
+	}
+
+}
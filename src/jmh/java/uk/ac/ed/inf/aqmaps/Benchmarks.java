@@ -0,0 +1,33 @@
+package uk.ac.ed.inf.aqmaps;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Runs the whole benchmark suite (or whatever the usual JMH command line options pick out) with the GC profiler
+// attached, so every stage reports its allocation rate alongside throughput and latency percentiles
+// Results are also written to jmh-results.json for comparing runs
+// Usage: java -cp target/aqmaps-0.0.1-SNAPSHOT.jar uk.ac.ed.inf.aqmaps.Benchmarks [JMH options]
+// For recorded data add: -p source=recorded -jvmArgsAppend -Daqmaps.benchmark.data=DIRECTORY
+// (no recorded data comes with the repository, DIRECTORY has to be a copy of the web server's files, e.g. one made by
+// downloading them from a running server, and needs enough days of sensors for the sensor counts being run)
+public final class Benchmarks {
+
+	private Benchmarks() {
+	}
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		var options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.resultFormat(ResultFormatType.JSON)
+				.result("jmh-results.json")
+				.build();
+		new Runner(options).run();
+	}
+
+}
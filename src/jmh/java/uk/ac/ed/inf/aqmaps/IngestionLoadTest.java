@@ -0,0 +1,127 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+// Load test of data ingestion: WebServer fetching (and parsing, and looking up the what-3-words addresses of) many days
+// of sensors from a StandInDataServer, with several days in flight at once
+// Reports end-to-end throughput, the latency of each day's getSensors and how often the retry loop had to step in
+// Usage: java -cp target/aqmaps-0.0.1-SNAPSHOT.jar uk.ac.ed.inf.aqmaps.IngestionLoadTest [--days=COUNT] [--clients=COUNT]
+//        [--sensors=COUNT] [--latency=MS] [--jitter=MS] [--drop-rate=FRACTION] [--error-rate=FRACTION]
+// Days whose data couldn't be retrieved (every retry failed, or the circuit breaker turned the requests away) are counted
+// as failed rather than stopping the run, so high fault rates show how the retry pipeline degrades
+public final class IngestionLoadTest {
+
+	private IngestionLoadTest() {
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		// The retry counters are read from Metrics, which has to be switched on before anything loads it
+		System.setProperty(Metrics.ENABLED_PROPERTY, "true");
+
+		var options = options(args);
+		int days = Integer.parseInt(options.getOrDefault("days", "200"));
+		int clients = Integer.parseInt(options.getOrDefault("clients", "4"));
+		int sensors = Integer.parseInt(options.getOrDefault("sensors", "33"));
+
+		try (var server = new StandInDataServer(0, sensors,
+				Long.parseLong(options.getOrDefault("latency", "0")),
+				Long.parseLong(options.getOrDefault("jitter", "0")),
+				Double.parseDouble(options.getOrDefault("drop-rate", "0")),
+				Double.parseDouble(options.getOrDefault("error-rate", "0")))) {
+			var webServer = WebServer.getInstanceWithConfig("http://localhost", Integer.toString(server.getPort()));
+			System.out.printf("Ingesting %d days of %d sensors with %d clients...%n", days, sensors, clients);
+			run(webServer, server, days, clients);
+		}
+	}
+
+	private static void run(WebServer webServer, StandInDataServer server, int days, int clients) throws InterruptedException {
+		var requests = Metrics.counter("aqmaps_http_requests_total", "HTTP requests sent (including retries)");
+		var retries = Metrics.counter("aqmaps_http_retries_total", "HTTP requests that failed and were sent again");
+		var responseBytes = Metrics.counter("aqmaps_http_response_bytes_total", "Bytes of HTTP response bodies received");
+
+		var dayNanos = new long[days];
+		var failedDays = new LongAdder();
+		var sensorsLoaded = new LongAdder();
+		var tasks = new ArrayList<Callable<Void>>();
+		var firstDate = LocalDate.of(2020, 1, 1);
+		for (int i = 0; i < days; i++) {
+			int dayIndex = i;
+			var date = firstDate.plusDays(i);
+			tasks.add(() -> {
+				long start = System.nanoTime();
+				try {
+					var daySensors = webServer.getSensors(
+							String.format("%02d", date.getDayOfMonth()), String.format("%02d", date.getMonthValue()), Integer.toString(date.getYear()));
+					sensorsLoaded.add(daySensors.size());
+				} catch (DataRetrievalException e) {
+					failedDays.increment();
+				}
+				dayNanos[dayIndex] = System.nanoTime() - start;
+				return null;
+			});
+		}
+
+		var executor = Executors.newFixedThreadPool(clients);
+		long start = System.nanoTime();
+		try {
+			for (var future : executor.invokeAll(tasks)) {
+				future.get();
+			}
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("A day failed to load", e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		Arrays.sort(dayNanos);
+		System.out.printf("Loaded %d of %d days (%d sensors) in %.2fs%n", days - failedDays.sum(), days, sensorsLoaded.sum(), seconds);
+		System.out.printf("Throughput: %.1f days/s, %.0f sensors/s, %.2f MB/s%n",
+				days / seconds, sensorsLoaded.sum() / seconds, responseBytes.get() / seconds / 1e6);
+		System.out.printf("Day latency: p50 %.1fms, p95 %.1fms, p99 %.1fms, max %.1fms%n",
+				percentile(dayNanos, 0.50), percentile(dayNanos, 0.95), percentile(dayNanos, 0.99), dayNanos[days - 1] / 1e6);
+		System.out.printf("Client: %d requests, %d retries (%.2f%% of requests)%n",
+				requests.get(), retries.get(), 100.0 * retries.get() / Math.max(requests.get(), 1));
+		System.out.printf("Server: %d served, %d dropped, %d failed with 503, %d not found%n",
+				server.getServed(), server.getDropped(), server.getFailed(), server.getNotFound());
+		// HttpClient quietly resends a request once when a pooled connection closes before the response arrives,
+		// so only the drops it couldn't cover for show up as retries in WebServer (along with the retried 503s)
+		long unseenFaults = server.getDropped() + server.getFailed() - retries.get();
+		if (unseenFaults > 0) {
+			System.out.printf("(about %d dropped connections were retried by HttpClient before WebServer saw them)%n", unseenFaults);
+		}
+	}
+
+	// Returns the percentile (0 to 1) of the sorted nanosecond values, in milliseconds
+	private static double percentile(long[] sortedNanos, double percentile) {
+		int index = (int) Math.ceil(percentile * sortedNanos.length) - 1;
+		return sortedNanos[Math.max(index, 0)] / 1e6;
+	}
+
+	// Returns the --name=value options in args (value is "" for --name on its own)
+	static Map<String, String> options(String[] args) {
+		var options = new HashMap<String, String>();
+		for (var arg : List.of(args)) {
+			if (arg.startsWith("--")) {
+				int equals = arg.indexOf('=');
+				if (equals == -1) {
+					options.put(arg.substring(2), "");
+				} else {
+					options.put(arg.substring(2, equals), arg.substring(equals + 1));
+				}
+			}
+		}
+		return options;
+	}
+
+}
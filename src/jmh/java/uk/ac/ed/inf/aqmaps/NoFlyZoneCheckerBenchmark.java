@@ -0,0 +1,78 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Time and allocation per NoFlyZoneChecker.moveIsLegal call
+// Run main (or JMH with -prof gc) to see the allocation rate: gc.alloc.rate.norm should be ~0 B/op for moveIsLegal
+// useBitmap compares the plain geometric check with one that consults a LegalMoveBitmap first
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NoFlyZoneCheckerBenchmark {
+
+	private static final int MOVES = 4096;  // Power of 2 so the index can wrap with a mask
+
+	@Param({"4", "100", "2000"})
+	public int noFlyZoneCount;
+
+	@Param({"false", "true"})
+	public boolean useBitmap;
+
+	private NoFlyZoneChecker noFlyZoneChecker;
+	private double[] longitudes;
+	private double[] latitudes;
+	private int[] bearings;
+	private int next = 0;
+
+	@Setup
+	public void setUp() {
+		noFlyZoneChecker = new NoFlyZoneChecker(BenchmarkData.noFlyZones(noFlyZoneCount, 1), BenchmarkData.CONFINEMENT_AREA);
+		if (useBitmap) {
+			noFlyZoneChecker.useLegalMoveBitmap(LegalMoveBitmap.build(noFlyZoneChecker, BenchmarkData.CONFINEMENT_AREA));
+		}
+		var points = BenchmarkData.points(MOVES, 2);
+		longitudes = new double[MOVES];
+		latitudes = new double[MOVES];
+		bearings = new int[MOVES];
+		for (int i = 0; i < MOVES; i++) {
+			longitudes[i] = points.get(i).longitude();
+			latitudes[i] = points.get(i).latitude();
+			bearings[i] = (i * 7 % 36) * 10;
+		}
+	}
+
+	@Benchmark
+	public boolean moveIsLegal() {
+		int i = next++ & (MOVES - 1);
+		return noFlyZoneChecker.moveIsLegal(longitudes[i], latitudes[i], bearings[i]);
+	}
+
+	// Runs this benchmark with the GC profiler attached
+	public static void main(String[] args) throws RunnerException {
+		var options = new OptionsBuilder()
+				.include(NoFlyZoneCheckerBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(options).run();
+	}
+
+}
@@ -0,0 +1,58 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Flying a planned route with Pilot.followRoute (the route is planned once, up front)
+// The drone runs out of moves long before it gets round thousands of sensors, so the bigger datasets mostly
+// measure the per-sensor bookkeeping and the detours near the start of the route
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PilotBenchmark {
+
+	@Param({"33", "500", "5000", "50000"})
+	public int sensorCount;
+
+	@Param({"a-star", "wall-follower"})
+	public String detour;
+
+	@Param({BenchmarkData.SYNTHETIC})
+	public String source;
+
+	private List<Sensor> route;
+	private NoFlyZoneChecker noFlyZoneChecker;
+	private DetourPlanner detourPlanner;
+
+	@Setup
+	public void setUp() {
+		var noFlyZones = BenchmarkData.noFlyZones(source);
+		var sensors = BenchmarkData.reachableSensors(source, sensorCount, noFlyZones);
+		route = FlightPlanner.plan(BenchmarkData.START, sensors, TourOptimiser.named("lk").orElseThrow()).getRoute();
+		noFlyZoneChecker = new NoFlyZoneChecker(noFlyZones, BenchmarkData.CONFINEMENT_AREA);
+		detourPlanner = DetourPlanner.named(detour).orElseThrow();
+	}
+
+	@Benchmark
+	public Pilot followRoute() {
+		var pilot = new Pilot(new Drone(BenchmarkData.START), noFlyZoneChecker, detourPlanner);
+		pilot.followRoute(route);
+		return pilot;
+	}
+
+}
@@ -0,0 +1,53 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Route planning: greedy + each neighbour list optimiser (the greedy tour on its own is GreedyPathBenchmark, which
+// doesn't depend on the optimiser)
+// 2-opt does a full O(n^2) scan per pass so it has its own benchmark (TwoOptBenchmark) with smaller datasets
+// SampleTime gives the latency percentiles, run with -prof gc (or Benchmarks.main) for the allocation rate
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PlannerBenchmark {
+
+	@Param({"33", "500", "5000", "50000"})
+	public int sensorCount;
+
+	@Param({"or-opt", "3-opt", "lk"})
+	public String optimiser;
+
+	@Param({BenchmarkData.SYNTHETIC})
+	public String source;
+
+	private List<Sensor> sensors;
+	private TourOptimiser tourOptimiser;
+
+	@Setup
+	public void setUp() {
+		sensors = BenchmarkData.reachableSensors(source, sensorCount, BenchmarkData.noFlyZones(source));
+		tourOptimiser = TourOptimiser.named(optimiser).orElseThrow();
+	}
+
+	@Benchmark
+	public PlannedRoute plan() {
+		return FlightPlanner.plan(BenchmarkData.START, sensors, tourOptimiser);
+	}
+
+}
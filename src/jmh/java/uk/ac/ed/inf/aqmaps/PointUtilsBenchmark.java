@@ -0,0 +1,88 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.mapbox.geojson.Point;
+
+// Time per call of the trigonometry-based PointUtils methods against the table-based LookupPointUtils ones
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PointUtilsBenchmark {
+
+	private static final int CALLS = 4096;  // Power of 2 so the index can wrap with a mask
+
+	private double[] longitudes;
+	private double[] latitudes;
+	private int[] bearings;
+	private Point[] points;
+	private Waypoint[] waypoints;
+	private int next = 0;
+
+	@Setup
+	public void setUp() {
+		var from = BenchmarkData.points(CALLS, 3);
+		var to = BenchmarkData.points(CALLS, 4);
+		longitudes = new double[CALLS];
+		latitudes = new double[CALLS];
+		bearings = new int[CALLS];
+		points = new Point[CALLS];
+		waypoints = new Waypoint[CALLS];
+		for (int i = 0; i < CALLS; i++) {
+			longitudes[i] = from.get(i).longitude();
+			latitudes[i] = from.get(i).latitude();
+			bearings[i] = (i * 7 % 36) * 10;
+			points[i] = from.get(i);
+			waypoints[i] = new StartEndPoint(to.get(i));
+		}
+	}
+
+	@Benchmark
+	public double trigMoveDestination() {
+		int i = next++ & (CALLS - 1);
+		return PointUtils.moveDestinationLongitude(longitudes[i], bearings[i]) + PointUtils.moveDestinationLatitude(latitudes[i], bearings[i]);
+	}
+
+	@Benchmark
+	public double lookupMoveDestination() {
+		int i = next++ & (CALLS - 1);
+		return LookupPointUtils.moveDestinationLongitude(longitudes[i], bearings[i]) + LookupPointUtils.moveDestinationLatitude(latitudes[i], bearings[i]);
+	}
+
+	@Benchmark
+	public int trigBearingFromTo() {
+		int i = next++ & (CALLS - 1);
+		return PointUtils.bearingFromTo(points[i], waypoints[i]);
+	}
+
+	@Benchmark
+	public int lookupBearingFromTo() {
+		int i = next++ & (CALLS - 1);
+		return LookupPointUtils.bearingFromTo(points[i], waypoints[i]);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		var options = new OptionsBuilder()
+				.include(PointUtilsBenchmark.class.getSimpleName())
+				.build();
+		new Runner(options).run();
+	}
+
+}
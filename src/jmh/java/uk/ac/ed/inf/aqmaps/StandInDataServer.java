@@ -0,0 +1,240 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.FeatureCollection;
+import com.mapbox.geojson.Point;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+// An embedded stand-in for the data web server, so the client side (WebServer) can be load tested without the real one
+// Serves the same three kinds of file the real server does, made up on the fly for any date:
+//   /maps/YYYY/MM/DD/air-quality-data.json   sensorsPerDay sensors (a few with "null" and "NaN" readings, like the real data)
+//   /words/W1/W2/W3/details.json             the coordinates of each of those sensors
+//   /buildings/no-fly-zones.geojson          the synthetic no-fly-zones from BenchmarkData
+// Every request is held up by latencyMillis plus up to jitterMillis, and then a fraction of them fail:
+//   dropRate   the connection is closed without a response (WebServer sees an IOException and retries)
+//   errorRate  a 503 comes back (WebServer retries those too, after a backoff)
+// Usage (to point App at it): java -cp target/aqmaps-0.0.1-SNAPSHOT.jar uk.ac.ed.inf.aqmaps.StandInDataServer PORT
+//        [--sensors=COUNT] [--latency=MS] [--jitter=MS] [--drop-rate=FRACTION] [--error-rate=FRACTION]
+public final class StandInDataServer implements AutoCloseable {
+
+	// One in this many sensors has a "null" reading, and one in this many a "NaN" one (about what the real data has)
+	private static final int NULL_READING_EVERY = 20;
+	private static final int NAN_READING_EVERY = 19;
+
+	private static final int NO_FLY_ZONES = 4;
+
+	private final HttpServer server;
+	private final ExecutorService executor = Executors.newCachedThreadPool();  // Sleeping requests mustn't hold up the rest
+	private final byte[] noFlyZonesJson;
+
+	private final int sensorsPerDay;
+	private final long latencyMillis;
+	private final long jitterMillis;
+	private final double dropRate;
+	private final double errorRate;
+
+	// What the server did with the requests it got
+	private final LongAdder served = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder notFound = new LongAdder();
+
+	// Starts serving on port (0 picks any free port, see getPort)
+	public StandInDataServer(int port, int sensorsPerDay, long latencyMillis, long jitterMillis, double dropRate, double errorRate) throws IOException {
+		this.sensorsPerDay = sensorsPerDay;
+		this.latencyMillis = latencyMillis;
+		this.jitterMillis = jitterMillis;
+		this.dropRate = dropRate;
+		this.errorRate = errorRate;
+
+		var features = new ArrayList<Feature>();
+		for (var noFlyZone : BenchmarkData.noFlyZones(NO_FLY_ZONES, 1)) {
+			features.add(Feature.fromGeometry(noFlyZone));
+		}
+		noFlyZonesJson = FeatureCollection.fromFeatures(features).toJson().getBytes(StandardCharsets.UTF_8);
+
+		// Otherwise small responses sit waiting on Nagle's algorithm and delayed ACKs (tens of milliseconds each), which would
+		// swamp everything being measured. Only read when the first HttpServer is created
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+		server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+		server.createContext("/", this::handle);
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	public long getServed() {
+		return served.sum();
+	}
+
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	public long getFailed() {
+		return failed.sum();
+	}
+
+	public long getNotFound() {
+		return notFound.sum();
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			delay();
+			double fault = ThreadLocalRandom.current().nextDouble();
+			if (fault < dropRate) {
+				dropped.increment();
+				return;  // Closing the exchange without sending anything drops the connection
+			}
+			if (fault < dropRate + errorRate) {
+				failed.increment();
+				exchange.sendResponseHeaders(503, -1);
+				return;
+			}
+
+			var body = bodyFor(exchange.getRequestURI().getPath());
+			if (body == null) {
+				notFound.increment();
+				exchange.sendResponseHeaders(404, -1);
+				return;
+			}
+			served.increment();
+			exchange.getResponseHeaders().set("Content-Type", "application/json");
+			exchange.sendResponseHeaders(200, body.length);
+			exchange.getResponseBody().write(body);
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void delay() {
+		long millis = latencyMillis + ((jitterMillis > 0) ? ThreadLocalRandom.current().nextLong(jitterMillis + 1) : 0);
+		if (millis == 0) {
+			return;
+		}
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// Returns the file at path, or null if there isn't one
+	private byte[] bodyFor(String path) {
+		var parts = path.split("/");
+		if (path.equals("/buildings/no-fly-zones.geojson")) {
+			return noFlyZonesJson;
+		}
+		if (parts.length == 6 && parts[1].equals("maps") && parts[5].equals("air-quality-data.json")) {
+			try {
+				var date = LocalDate.of(Integer.parseInt(parts[2]), Integer.parseInt(parts[3]), Integer.parseInt(parts[4]));
+				return sensorsJson(date.toEpochDay());
+			} catch (NumberFormatException | DateTimeException e) {
+				return null;
+			}
+		}
+		if (parts.length == 6 && parts[1].equals("words") && parts[5].equals("details.json")) {
+			return detailsJson(parts[2], parts[3], parts[4]);
+		}
+		return null;
+	}
+
+	// Sensors are made up from the day, so the same date always gets the same sensors without remembering any of them
+	private byte[] sensorsJson(long day) {
+		var sensors = new JsonArray();
+		for (int i = 0; i < sensorsPerDay; i++) {
+			var random = sensorRandom(day, i);
+			random.nextDouble();  // Skip the coordinates (see detailsJson)
+			random.nextDouble();
+			String reading;
+			if (i % NULL_READING_EVERY == NULL_READING_EVERY - 1) {
+				reading = "null";
+			} else if (i % NAN_READING_EVERY == NAN_READING_EVERY - 1) {
+				reading = "NaN";
+			} else {
+				reading = String.format("%.2f", 256 * random.nextDouble());
+			}
+			var sensor = new JsonObject();
+			sensor.addProperty("location", w3wAddress(day, i));
+			sensor.addProperty("battery", 100 * random.nextDouble());
+			sensor.addProperty("reading", reading);
+			sensors.add(sensor);
+		}
+		return sensors.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private byte[] detailsJson(String first, String second, String third) {
+		long day;
+		int sensor;
+		try {
+			day = Long.parseLong(first.substring("day".length()));
+			sensor = Integer.parseInt(second.substring("sensor".length()));
+		} catch (NumberFormatException | IndexOutOfBoundsException e) {
+			return null;
+		}
+		if (!third.equals("standin") || !w3wAddress(day, sensor).equals(first + "." + second + "." + third)) {
+			return null;
+		}
+		var random = sensorRandom(day, sensor);
+		var area = BenchmarkData.CONFINEMENT_AREA;
+		var point = Point.fromLngLat(
+				area.west() + random.nextDouble() * (area.east() - area.west()),
+				area.south() + random.nextDouble() * (area.north() - area.south()));
+		var coordinates = new JsonObject();
+		coordinates.addProperty("lng", point.longitude());
+		coordinates.addProperty("lat", point.latitude());
+		var details = new JsonObject();
+		details.addProperty("words", first + "." + second + "." + third);
+		details.add("coordinates", coordinates);
+		return details.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String w3wAddress(long day, int sensor) {
+		return String.format("day%d.sensor%d.standin", day, sensor);
+	}
+
+	private static Random sensorRandom(long day, int sensor) {
+		return new Random(day * 1_000_003L + sensor);
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.out.println("Usage: StandInDataServer PORT [--sensors=COUNT] [--latency=MS] [--jitter=MS] [--drop-rate=FRACTION] [--error-rate=FRACTION]");
+			System.exit(1);
+		}
+		var options = IngestionLoadTest.options(args);
+		var server = new StandInDataServer(Integer.parseInt(args[0]),
+				Integer.parseInt(options.getOrDefault("sensors", "33")),
+				Long.parseLong(options.getOrDefault("latency", "0")),
+				Long.parseLong(options.getOrDefault("jitter", "0")),
+				Double.parseDouble(options.getOrDefault("drop-rate", "0")),
+				Double.parseDouble(options.getOrDefault("error-rate", "0")));
+		System.out.printf("Serving stand-in data on port %d (Ctrl-C to stop)%n", server.getPort());
+	}
+
+}
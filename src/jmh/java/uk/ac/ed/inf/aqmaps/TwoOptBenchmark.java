@@ -0,0 +1,46 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// FlightPlanner.twoOptPath, the planner App uses by default
+// Limited to the smaller datasets since each 2-opt pass looks at every pair of edges
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TwoOptBenchmark {
+
+	@Param({"33", "500"})
+	public int sensorCount;
+
+	@Param({BenchmarkData.SYNTHETIC})
+	public String source;
+
+	private List<Sensor> sensors;
+
+	@Setup
+	public void setUp() {
+		sensors = BenchmarkData.reachableSensors(source, sensorCount, BenchmarkData.noFlyZones(source));
+	}
+
+	@Benchmark
+	public List<Sensor> twoOptPath() {
+		return FlightPlanner.twoOptPath(BenchmarkData.START, sensors);
+	}
+
+}
@@ -0,0 +1,288 @@
+package uk.ac.ed.inf.aqmaps;
+
+import static uk.ac.ed.inf.aqmaps.LookupPointUtils.moveDestinationLatitude;
+import static uk.ac.ed.inf.aqmaps.LookupPointUtils.moveDestinationLongitude;
+import static uk.ac.ed.inf.aqmaps.PointUtils.arrivalDistance;
+import static uk.ac.ed.inf.aqmaps.PointUtils.inRange;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.mapbox.geojson.Point;
+
+// Finds the way around an obstruction with an A* search over every position the drone can reach with its 36 bearings
+// Every move costs 1 and the heuristic is the fewest moves that could possibly close the remaining distance, so it never
+// overestimates and the detour found takes (up to the position rounding below) as few moves as possible
+// The returned bearings go all the way to the goal, so the Pilot arrives exactly when it runs out of precomputed bearings
+class AStarDetourPlanner implements DetourPlanner {
+
+	// Positions closer together than this (roughly) are treated as the same position, otherwise the search would never end
+	// since almost every sequence of moves lands somewhere slightly different
+	private static final double POSITION_RESOLUTION = Drone.MOVE_DISTANCE / 5;
+
+	// Caps how long one search can take, far more than any real detour around the campus needs
+	private static final int MAX_EXPANSIONS = 20_000;
+
+	private static final Metrics.Distribution EXPANSIONS = Metrics.distribution("aqmaps_a_star_expansions", "Positions expanded by each A* detour search");
+
+	@Override
+	public List<Integer> pathAround(Point start, Waypoint goal, int movesLeft, NoFlyZoneChecker noFlyZoneChecker) {
+		return new Search(start, goal, movesLeft, noFlyZoneChecker).run();
+	}
+
+	@Override
+	public String getName() {
+		return "a-star";
+	}
+
+	// The state of one search (each search gets its own, so one planner can be shared between threads)
+	// Nodes are stored in parallel primitive arrays, and the open list is a binary heap of node indices
+	private static class Search {
+
+		private final Waypoint goal;
+		private final int movesLeft;
+		private final NoFlyZoneChecker noFlyZoneChecker;
+		private final double startLongitude;
+		private final double startLatitude;
+		private final double goalLongitude;
+		private final double goalLatitude;
+		private final double arrivalDistance;
+
+		// Node n is at (longitudes[n], latitudes[n]), reached by taking bearings[n] from parents[n] after moves[n] moves
+		private double[] longitudes = new double[1024];
+		private double[] latitudes = new double[1024];
+		private int[] parents = new int[1024];
+		private int[] bearings = new int[1024];
+		private int[] moves = new int[1024];
+		// moves[n] + the heuristic, and the straight line distance left (used to break ties between equal estimates)
+		private int[] estimates = new int[1024];
+		private double[] distancesLeft = new double[1024];
+		private int nodeCount = 0;
+
+		private int[] heap = new int[1024];
+		private int heapSize = 0;
+
+		private final PositionSet closed = new PositionSet();
+		private int expansions = 0;
+
+		Search(Point start, Waypoint goal, int movesLeft, NoFlyZoneChecker noFlyZoneChecker) {
+			this.goal = goal;
+			this.movesLeft = movesLeft;
+			this.noFlyZoneChecker = noFlyZoneChecker;
+			this.startLongitude = start.longitude();
+			this.startLatitude = start.latitude();
+			this.goalLongitude = goal.getPoint().longitude();
+			this.goalLatitude = goal.getPoint().latitude();
+			this.arrivalDistance = arrivalDistance(goal);
+		}
+
+		// Returns the bearings of the shortest path found into range of the goal (empty if there isn't one)
+		List<Integer> run() {
+			push(addNode(startLongitude, startLatitude, -1, -1, 0));
+			try {
+				return search();
+			} finally {
+				EXPANSIONS.record(expansions);
+			}
+		}
+
+		private List<Integer> search() {
+			while (heapSize > 0 && expansions < MAX_EXPANSIONS) {
+				int node = pop();
+				if (!closed.add(positionKey(longitudes[node], latitudes[node]))) {
+					continue;  // Already expanded a node at (roughly) this position with no more moves
+				}
+				expansions++;
+
+				double longitude = longitudes[node];
+				double latitude = latitudes[node];
+				int movesSoFar = moves[node];
+				for (int bearing = 0; bearing < 360; bearing += 10) {
+					if (!noFlyZoneChecker.moveIsLegal(longitude, latitude, bearing)) {
+						continue;
+					}
+					double nextLongitude = moveDestinationLongitude(longitude, bearing);
+					double nextLatitude = moveDestinationLatitude(latitude, bearing);
+
+					// Every move costs the same, so the first move into range is as good as any move found later
+					if (inRange(nextLongitude, nextLatitude, goal)) {
+						return bearingsTo(node, bearing);
+					}
+					if (closed.contains(positionKey(nextLongitude, nextLatitude))) {
+						continue;
+					}
+					int child = addNode(nextLongitude, nextLatitude, node, bearing, movesSoFar + 1);
+					if (estimates[child] > movesLeft) {
+						nodeCount--;  // The drone could never make it in time from there, so forget about it
+						continue;
+					}
+					push(child);
+				}
+			}
+			return new ArrayList<Integer>();
+		}
+
+		// Returns the bearings taken to reach node, followed by lastBearing
+		private List<Integer> bearingsTo(int node, int lastBearing) {
+			var path = new ArrayList<Integer>();
+			path.add(lastBearing);
+			for (int n = node; parents[n] != -1; n = parents[n]) {
+				path.add(bearings[n]);
+			}
+			Collections.reverse(path);
+			return path;
+		}
+
+		private int addNode(double longitude, double latitude, int parent, int bearing, int movesTaken) {
+			if (nodeCount == longitudes.length) {
+				int capacity = 2 * nodeCount;
+				longitudes = Arrays.copyOf(longitudes, capacity);
+				latitudes = Arrays.copyOf(latitudes, capacity);
+				parents = Arrays.copyOf(parents, capacity);
+				bearings = Arrays.copyOf(bearings, capacity);
+				moves = Arrays.copyOf(moves, capacity);
+				estimates = Arrays.copyOf(estimates, capacity);
+				distancesLeft = Arrays.copyOf(distancesLeft, capacity);
+			}
+			int node = nodeCount++;
+			double dLong = goalLongitude - longitude;
+			double dLat = goalLatitude - latitude;
+			double distanceLeft = Math.sqrt(dLong*dLong + dLat*dLat);
+
+			longitudes[node] = longitude;
+			latitudes[node] = latitude;
+			parents[node] = parent;
+			bearings[node] = bearing;
+			moves[node] = movesTaken;
+			estimates[node] = movesTaken + movesNeeded(distanceLeft);
+			distancesLeft[node] = distanceLeft;
+			return node;
+		}
+
+		// The fewest moves that could get the drone within arrivalDistance of the goal (each move covers exactly MOVE_DISTANCE)
+		// The small slack stops rounding error ever pushing it one over the true minimum
+		private int movesNeeded(double distanceLeft) {
+			return Math.max(0, (int) Math.ceil((distanceLeft - arrivalDistance) / Drone.MOVE_DISTANCE - 1e-9));
+		}
+
+		// Packs a position, rounded to POSITION_RESOLUTION, into one long
+		private long positionKey(double longitude, double latitude) {
+			long column = Math.round((longitude - startLongitude) / POSITION_RESOLUTION);
+			long row = Math.round((latitude - startLatitude) / POSITION_RESOLUTION);
+			return (column << 32) ^ (row & 0xFFFFFFFFL);
+		}
+
+		// True if node a should come off the open list before node b
+		// Lowest estimate first, then closest to the goal, then whichever was found first (so searches are repeatable)
+		private boolean before(int a, int b) {
+			if (estimates[a] != estimates[b]) {
+				return estimates[a] < estimates[b];
+			}
+			if (distancesLeft[a] != distancesLeft[b]) {
+				return distancesLeft[a] < distancesLeft[b];
+			}
+			return a < b;
+		}
+
+		private void push(int node) {
+			if (heapSize == heap.length) {
+				heap = Arrays.copyOf(heap, 2 * heapSize);
+			}
+			int i = heapSize++;
+			while (i > 0) {  // Sift up
+				int parent = (i - 1) / 2;
+				if (!before(node, heap[parent])) {
+					break;
+				}
+				heap[i] = heap[parent];
+				i = parent;
+			}
+			heap[i] = node;
+		}
+
+		private int pop() {
+			int top = heap[0];
+			int last = heap[--heapSize];
+			int i = 0;
+			while (true) {  // Sift down
+				int child = 2*i + 1;
+				if (child >= heapSize) {
+					break;
+				}
+				if (child + 1 < heapSize && before(heap[child + 1], heap[child])) {
+					child++;
+				}
+				if (!before(heap[child], last)) {
+					break;
+				}
+				heap[i] = heap[child];
+				i = child;
+			}
+			heap[i] = last;
+			return top;
+		}
+
+	}
+
+	// Set of position keys (open addressing with linear probing, so no boxing)
+	private static class PositionSet {
+
+		private static final long EMPTY = Long.MIN_VALUE;  // Can't be a real key, rows and columns are nowhere near that big
+
+		private long[] keys = newTable(1024);
+		private int size = 0;
+
+		boolean contains(long key) {
+			int mask = keys.length - 1;
+			for (int i = slotFor(key, mask); keys[i] != EMPTY; i = (i + 1) & mask) {
+				if (keys[i] == key) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		// Adds the key, returning false if it was already in the set
+		boolean add(long key) {
+			if (2 * (size + 1) > keys.length) {  // Keep it at most half full
+				var oldKeys = keys;
+				keys = newTable(2 * oldKeys.length);
+				for (long oldKey : oldKeys) {
+					if (oldKey != EMPTY) {
+						insert(oldKey);
+					}
+				}
+			}
+			if (contains(key)) {
+				return false;
+			}
+			insert(key);
+			size++;
+			return true;
+		}
+
+		private void insert(long key) {
+			int mask = keys.length - 1;
+			int i = slotFor(key, mask);
+			while (keys[i] != EMPTY) {
+				i = (i + 1) & mask;
+			}
+			keys[i] = key;
+		}
+
+		private static int slotFor(long key, int mask) {
+			long hash = key * 0x9E3779B97F4A7C15L;  // Spreads the packed rows and columns over the table
+			return (int) (hash >>> 32) & mask;
+		}
+
+		private static long[] newTable(int capacity) {
+			var table = new long[capacity];
+			Arrays.fill(table, EMPTY);
+			return table;
+		}
+
+	}
+
+}
@@ -3,102 +3,521 @@ package uk.ac.ed.inf.aqmaps;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
 import com.mapbox.geojson.Point;
 import com.mapbox.geojson.Polygon;
 import com.mapbox.geojson.BoundingBox;
 
-public class App {	
-	
+public class App {
+
 	// Dimensions of bounding box
 	private static final double NORTH_LATITUDE = 55.946233;
 	private static final double SOUTH_LATITUDE = 55.942617;
 	private static final double EAST_LONGITUDE = -3.184319;
 	private static final double WEST_LONGITUDE = -3.192473;
-	
-	private static final BoundingBox droneConfinementArea = 
+
+	private static final BoundingBox droneConfinementArea =
 			BoundingBox.fromLngLats(WEST_LONGITUDE, SOUTH_LATITUDE, EAST_LONGITUDE, NORTH_LATITUDE);
-	
-	private static List<Sensor> sensors = null;
-	private static List<Polygon> noFlyZones = null;
-	
+
+	// Where what-3-words coordinates and no-fly-zones are cached between runs
+	private static final String CACHE_DIRECTORY = ResourceCache.DEFAULT_DIRECTORY;
+
+	// Format of the --until=DD-MM-YYYY option (same order as the date in the output file names)
+	private static final DateTimeFormatter OPTION_DATE_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+
+	// Usage: DD MM YYYY LATITUDE LONGITUDE SEED PORT [--until=DD-MM-YYYY] [--no-cache] [--planner=NAME] [--flight-costs] [--move-bitmap] [--detour=NAME]
+	//        [--metrics=FORMAT] [--flight-records] [--drones=COUNT]
+	//        [--within-budget] [--replan] [--sweep=COUNT]
+	// Passing --until flies every date from DD-MM-YYYY up to (and including) the --until date in one run
+	// Passing --no-cache always fetches what-3-words addresses and no-fly-zones from the web server
+	// Passing --planner picks the route optimiser (2-opt, or-opt, 3-opt or lk), 2-opt is used otherwise
+	// Passing --flight-costs plans with the number of moves needed to fly around no-fly-zones instead of straight line distances
+	// Passing --move-bitmap precomputes which moves are definitely legal so most moves skip the no-fly-zone geometry
+	// (the table is saved in the cache directory and reused by later runs, unless --no-cache is also passed)
+	// Passing --detour picks how the drone gets around no-fly-zones (a-star, wall-follower or wide-wall-follower), a-star is used otherwise
+	// Passing --metrics times each stage of the run and counts what the planners and pilot did, writing them to metrics.json
+	// (--metrics=json) or metrics.prom (--metrics=prometheus) at the end
+	// Passing --flight-records also writes each flight as a compact binary flightpath-DD-MM-YYYY.bin (see FlightRecords)
+	// Passing --drones splits the sensors between a fleet of that many drones, each flown on its own thread
+	// (they write flightpath-DD-MM-YYYY-drone-N.txt each and share readings-DD-MM-YYYY.geojson)
+	// Passing --within-budget plans up front which sensors fit in each drone's moves (low battery sensors first)
+	// instead of letting the drone run out of moves partway round; the sensors left out show up unvisited on the map
+	// Passing --replan re-optimises the order of the rest of the route from wherever the drone is after each reading
+	// Passing --sweep flies from that many random start points (drawn using SEED) on each date instead of from LATITUDE LONGITUDE,
+	// printing a summary of the moves used, failures and sensors missed without writing any flight files (see StartPointSweep)
     public static void main( String[] args ) {
-    	var day = args[0];
-    	var month = args[1];
-    	var year = args[2];
+    	var positionalArgs = positionalArgs(args);
+    	var options = options(args);
+
+    	// Has to happen before anything touches Metrics, since whether it's enabled is fixed when the class loads
+    	var metricsFormat = options.get("metrics");
+    	if (metricsFormat != null) {
+    		checkMetricsFormat(metricsFormat);
+    		System.setProperty(Metrics.ENABLED_PROPERTY, "true");
+    	}
+
+    	var day = positionalArgs.get(0);
+    	var month = positionalArgs.get(1);
+    	var year = positionalArgs.get(2);
     	var startingPoint = Point.fromLngLat(
-    			Double.parseDouble(args[4]), 
-    			Double.parseDouble(args[3]));
-    	var port = args[6];
-    	
-    	// Populates fields "waypoints" and "noFlyZones"  	
-    	retrieveRelevantData(day, month, year, port);
-    	
-    	// Plans a 2-opt optimised route
-    	var route = FlightPlanner.twoOptPath(startingPoint, sensors);
+    			Double.parseDouble(positionalArgs.get(4)),
+    			Double.parseDouble(positionalArgs.get(3)));
+    	var port = positionalArgs.get(6);
+
+    	var webServer = WebServer.getInstanceWithConfig("http://localhost", port);
+    	if (!options.containsKey("no-cache")) {
+    		webServer.setCache(ResourceCache.openIn(Paths.get(CACHE_DIRECTORY)));
+    	}
+
+    	// The no-fly-zones are the same every day, so they are downloaded and processed exactly once
+    	long stageStart = Metrics.start();
+    	var noFlyZones = retrieveNoFlyZones(webServer);
+    	stageTimer("retrieve_no_fly_zones").stop(stageStart);
+    	var noFlyZoneChecker = new NoFlyZoneChecker(noFlyZones, droneConfinementArea);
+    	if (options.containsKey("move-bitmap")) {
+    		stageStart = Metrics.start();
+    		var bitmap = options.containsKey("no-cache")
+    				? LegalMoveBitmap.build(noFlyZoneChecker, droneConfinementArea)
+    				: LegalMoveBitmap.loadOrBuild(noFlyZoneChecker, droneConfinementArea, Paths.get(CACHE_DIRECTORY));
+    		noFlyZoneChecker.useLegalMoveBitmap(bitmap);
+    		stageTimer("move_bitmap").stop(stageStart);
+    	}
+
+    	var optimiser = chooseOptimiser(options.getOrDefault("planner", "2-opt"));
+    	var detourPlanner = chooseDetourPlanner(options.getOrDefault("detour", DetourPlanner.DEFAULT.getName()));
+
+    	// Shared between dates so that flights measured for one date don't need measuring again
+    	var flightCosts = options.containsKey("flight-costs") ? new FlightCosts(noFlyZoneChecker, detourPlanner) : null;
+
+    	var selector = options.containsKey("within-budget") ? new SensorSelector() : null;
+    	var replanningHook = options.containsKey("replan") ? new LocalSearchReplanner() : ReplanningHook.NONE;
+    	var planner = new RoutePlanner(optimiser, flightCosts, selector);
+    	boolean flightRecords = options.containsKey("flight-records");
+    	int drones = parseCount(options.getOrDefault("drones", "1"), "drone count");
+    	if (options.containsKey("sweep")) {
+    		int startPoints = parseCount(options.get("sweep"), "sweep start point count");
+    		var firstDate = LocalDate.of(Integer.parseInt(year), Integer.parseInt(month), Integer.parseInt(day));
+    		var lastDate = options.containsKey("until") ? parseOptionDate(options.get("until")) : firstDate;
+    		sweepStartPoints(webServer, firstDate, lastDate, Long.parseLong(positionalArgs.get(5)), startPoints,
+    				noFlyZoneChecker, detourPlanner, replanningHook, planner);
+    	} else if (options.containsKey("until")) {
+    		var firstDate = LocalDate.of(Integer.parseInt(year), Integer.parseInt(month), Integer.parseInt(day));
+    		var lastDate = parseOptionDate(options.get("until"));
+    		flyDateRange(webServer, firstDate, lastDate, startingPoint, noFlyZoneChecker, detourPlanner, replanningHook, planner, flightRecords, drones);
+    	} else {
+    		var sensors = retrieveSensors(webServer, day, month, year);
+    		flyDate(day, month, year, startingPoint, sensors, noFlyZoneChecker, detourPlanner, replanningHook, planner, flightRecords, drones);
+    	}
+
+    	if (metricsFormat != null) {
+    		writeMetrics(metricsFormat);
+    	}
+    }
+
+    // Plans, flies and writes the output files for every date between firstDate and lastDate (inclusive)
+    // Dates don't depend on each other, so they are flown in parallel
+    private static void flyDateRange(WebServer webServer, LocalDate firstDate, LocalDate lastDate, Point startingPoint, 
+    		NoFlyZoneChecker noFlyZoneChecker, DetourPlanner detourPlanner, ReplanningHook replanningHook, RoutePlanner planner, boolean flightRecords, int drones) {
+    	var dates = firstDate.datesUntil(lastDate.plusDays(1)).collect(Collectors.toList());
+
+    	long completed = dates.parallelStream()
+    			.filter(date -> flyBatchDate(webServer, date, startingPoint, noFlyZoneChecker, detourPlanner, replanningHook, planner, flightRecords, drones))
+    			.count();
+
+    	System.out.printf("Batch finished: %d of %d flights returned to the starting point.%n", completed, dates.size());
+    }
+
+    // Flies from startPoints random start points on every date between firstDate and lastDate (inclusive) and prints how it went
+    // Dates whose sensor data can't be retrieved are left out of the sweep, like in a batch
+    private static void sweepStartPoints(WebServer webServer, LocalDate firstDate, LocalDate lastDate, long seed, int startPoints,
+    		NoFlyZoneChecker noFlyZoneChecker, DetourPlanner detourPlanner, ReplanningHook replanningHook, RoutePlanner planner) {
+    	var sensorsByDate = new TreeMap<LocalDate, List<Sensor>>();
+    	for (var date : firstDate.datesUntil(lastDate.plusDays(1)).collect(Collectors.toList())) {
+    		var day = String.format("%02d", date.getDayOfMonth());
+    		var month = String.format("%02d", date.getMonthValue());
+    		var year = String.valueOf(date.getYear());
+    		long stageStart = Metrics.start();
+    		try {
+    			sensorsByDate.put(date, webServer.getSensors(day, month, year));
+    		} catch (DataRetrievalException e) {
+    			System.out.printf("Skipping %s-%s-%s: %s%n", day, month, year, e.getMessage());
+    		} finally {
+    			stageTimer("retrieve_sensors").stop(stageStart);
+    		}
+    	}
+    	if (sensorsByDate.isEmpty()) {
+    		System.out.println("Fatal error: No sensor data could be retrieved for any date of the sweep. Exiting...");
+    		System.exit(1);
+    	}
+
+    	var sweep = new StartPointSweep(noFlyZoneChecker, detourPlanner, planner, replanningHook);
+    	List<Point> startingPoints;
+    	try {
+    		startingPoints = StartPointSweep.randomStartPoints(startPoints, seed, droneConfinementArea, noFlyZoneChecker);
+    	} catch (IllegalArgumentException e) {
+    		System.out.printf("Fatal error: %s. Exiting...%n", e.getMessage());
+    		System.exit(1);
+    		return;
+    	}
+    	long stageStart = Metrics.start();
+    	var report = sweep.run(sensorsByDate, startingPoints);
+    	stageTimer("sweep").stop(stageStart);
+    	System.out.println(report.summary());
+    }
+
+    // Flies a single date of a batch, skipping it (instead of exiting) if its sensor data can't be retrieved
+    private static boolean flyBatchDate(WebServer webServer, LocalDate date, Point startingPoint, 
+    		NoFlyZoneChecker noFlyZoneChecker, DetourPlanner detourPlanner, ReplanningHook replanningHook, RoutePlanner planner, boolean flightRecords, int drones) {
+    	var day = String.format("%02d", date.getDayOfMonth());
+    	var month = String.format("%02d", date.getMonthValue());
+    	var year = String.valueOf(date.getYear());
+
+    	List<Sensor> sensors;
+    	long stageStart = Metrics.start();
+    	try {
+    		sensors = webServer.getSensors(day, month, year);
+    	} catch (DataRetrievalException e) {
+    		System.out.printf("Skipping %s-%s-%s: %s%n", day, month, year, e.getMessage());
+    		return false;
+    	} finally {
+    		stageTimer("retrieve_sensors").stop(stageStart);
+    	}
+    	return flyDate(day, month, year, startingPoint, sensors, noFlyZoneChecker, detourPlanner, replanningHook, planner, flightRecords, drones);
+    }
+
+    // Plans a route through the sensors, flies it and writes the output files for that date
+    // Returns true if the drone made it back to the starting point
+    // If flightRecords is true the flight is also written to flightpath-DD-MM-YYYY.bin
+    // With more than one drone the sensors are split between a fleet instead (see flyFleet)
+    private static boolean flyDate(String day, String month, String year, Point startingPoint, List<Sensor> sensors, 
+    		NoFlyZoneChecker noFlyZoneChecker, DetourPlanner detourPlanner, ReplanningHook replanningHook, RoutePlanner planner, boolean flightRecords, int drones) {
+    	if (drones > 1) {
+    		return flyFleet(day, month, year, startingPoint, sensors, noFlyZoneChecker, detourPlanner, replanningHook, planner, flightRecords, drones);
+    	}
+
+    	// Plans a greedy route and improves it with the chosen optimiser
+    	long stageStart = Metrics.start();
+    	var plannedRoute = planner.plan(startingPoint, sensors);
+    	stageTimer("plan").stop(stageStart);
+    	var route = plannedRoute.getRoute();
+    	// Dates of a batch are flown in parallel, so every line says which date it's about
+    	var date = dateLabel(day, month, year);
+    	System.out.printf("%s: %s%n", date, plannedRoute.summary());
 
     	// Creates the drone with the initial position startingPoint
     	var drone = new Drone(startingPoint);
-    	
-    	// Creates the pilot, assigning it a drone and setting its constraints 
-    	var pilot = new Pilot(drone, noFlyZones, droneConfinementArea);
-    	
-    	// Start the flight!
-    	attemptFlight(pilot, route);
-    	
-    	System.out.printf("Drone used %d of %d moves.%n", drone.getTimesMoved(), Drone.MAX_MOVES);
-    	
+
+    	// The flight log is written to flightpath-*.txt while the drone flies, rather than all at once at the end
+    	Pilot pilot;
+    	boolean completed;
+    	try (var flightLog = openFlightLog(flightpathName(day, month, year), flightRecords)) {
+    		// Creates the pilot, assigning it a drone, the (shared) constraints, how to get around them and where to log its moves
+    		pilot = new Pilot(drone, noFlyZoneChecker, detourPlanner, flightLog);
+    		pilot.setReplanningHook(replanningHook);
+    		pilot.markSkipped(plannedRoute.getSkipped());
+
+    		// Start the flight!
+    		stageStart = Metrics.start();
+    		completed = attemptFlight(pilot, route, date);
+    		stageTimer("fly").stop(stageStart);
+    		flightLog.finish();
+    	} catch (IOException | UncheckedIOException e) {
+    		System.out.println("Fatal error: Failed to write flightpath file. Exiting...");
+    		System.exit(1);
+    		return false;  // Method always needs to return something
+    	}
+
+    	System.out.printf("%s: Drone used %d of %d moves.%n", date, drone.getTimesMoved(), Drone.MAX_MOVES);
+
     	// Create and write to appropriate files
+    	stageStart = Metrics.start();
     	outputResults(pilot, day, month, year);
+    	stageTimer("write_output").stop(stageStart);
+    	return completed;
+    }
+
+    // Splits the sensors between a fleet of drones, then plans and flies each drone's route on its own thread
+    // Each drone writes its own flightpath-DD-MM-YYYY-drone-N.txt, and the readings map shows every drone's path
+    // Returns true if every drone made it back to the starting point
+    private static boolean flyFleet(String day, String month, String year, Point startingPoint, List<Sensor> sensors, 
+    		NoFlyZoneChecker noFlyZoneChecker, DetourPlanner detourPlanner, ReplanningHook replanningHook, RoutePlanner planner, boolean flightRecords, int drones) {
+    	long stageStart = Metrics.start();
+    	var routes = FleetPlanner.split(startingPoint, sensors, drones, planner);
+    	stageTimer("plan").stop(stageStart);
+    	System.out.printf("%s: Split %d sensors between %d drones.%n", dateLabel(day, month, year), sensors.size(), routes.size());
+
+    	// Each drone's pilot ends up in pilots, and whether it made it back in its Future
+    	var pilots = new Pilot[routes.size()];
+    	var flights = new ArrayList<Future<Boolean>>();
+    	var executor = Executors.newFixedThreadPool(Math.max(1, routes.size()));
+    	try {
+    		for (int i = 0; i < routes.size(); i++) {
+    			int droneIndex = i;
+    			flights.add(executor.submit(() -> flyFleetDrone(droneIndex, day, month, year, startingPoint, routes.get(droneIndex), 
+    					noFlyZoneChecker, detourPlanner, replanningHook, planner, flightRecords, pilots)));
+    		}
+    		boolean allCompleted = true;
+    		for (var flight : flights) {
+    			allCompleted &= awaitFlight(flight);
+    		}
+
+    		// Merge every drone's flight into one map
+    		stageStart = Metrics.start();
+    		var flightpaths = new ArrayList<List<Point>>();
+    		var sensorsVisited = new HashMap<Sensor, Boolean>();
+    		for (var pilot : pilots) {
+    			flightpaths.add(pilot.getPathTaken());
+    			sensorsVisited.putAll(pilot.getSensorsVisited());
+    		}
+    		var readingsFname = readingsFilename(day, month, year);
+    		try {
+    			FlightMap.writeFromFleetData(Paths.get(readingsFname), flightpaths, sensorsVisited);
+    		} catch (IOException e) {
+    			System.out.println("Fatal error: Failed to write output files. Exiting...");
+    			System.exit(1);
+    		}
+    		stageTimer("write_output").stop(stageStart);
+    		System.out.printf("%d flightpath files and %s created successfully!%n", routes.size(), readingsFname);
+    		return allCompleted;
+    	} finally {
+    		executor.shutdown();
+    	}
     }
 
-    private static void retrieveRelevantData(String day, String month, String year, String port) {
-		var webServer = WebServer.getInstanceWithConfig("http://localhost", port);
+    // Plans and flies one drone of a fleet (storing its pilot in pilots[droneIndex]), returning true if it made it back
+    private static boolean flyFleetDrone(int droneIndex, String day, String month, String year, Point startingPoint, List<Sensor> sensors, 
+    		NoFlyZoneChecker noFlyZoneChecker, DetourPlanner detourPlanner, ReplanningHook replanningHook, RoutePlanner planner, boolean flightRecords, Pilot[] pilots) {
+    	int droneNumber = droneIndex + 1;
+    	long stageStart = Metrics.start();
+    	var plannedRoute = planner.plan(startingPoint, sensors);
+    	stageTimer("plan").stop(stageStart);
+    	var date = dateLabel(day, month, year);
+    	System.out.printf("%s: Drone %d: %s%n", date, droneNumber, plannedRoute.summary());
+
+    	var drone = new Drone(startingPoint);
+    	boolean completed;
+    	try (var flightLog = openFlightLog(flightpathName(day, month, year) + "-drone-" + droneNumber, flightRecords)) {
+    		pilots[droneIndex] = new Pilot(drone, noFlyZoneChecker, detourPlanner, flightLog);
+    		pilots[droneIndex].setReplanningHook(replanningHook);
+    		pilots[droneIndex].markSkipped(plannedRoute.getSkipped());
+    		stageStart = Metrics.start();
+    		completed = attemptFlight(pilots[droneIndex], plannedRoute.getRoute(), date + ": Drone " + droneNumber);
+    		stageTimer("fly").stop(stageStart);
+    		flightLog.finish();
+    	} catch (IOException | UncheckedIOException e) {
+    		System.out.println("Fatal error: Failed to write flightpath file. Exiting...");
+    		System.exit(1);
+    		return false;  // Method always needs to return something
+    	}
+
+    	System.out.printf("%s: Drone %d used %d of %d moves.%n", date, droneNumber, drone.getTimesMoved(), Drone.MAX_MOVES);
+    	return completed;
+    }
+
+    private static boolean awaitFlight(Future<Boolean> flight) {
+    	try {
+    		return flight.get();
+    	} catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    		throw new IllegalStateException("Interrupted while waiting for a drone of the fleet", e);
+    	} catch (ExecutionException e) {
+    		throw new IllegalStateException("Flight of a drone of the fleet failed", e.getCause());
+    	}
+    }
+
+    private static List<Polygon> retrieveNoFlyZones(WebServer webServer) {
 	   	try {
-			sensors = webServer.getSensors(day, month, year);
-			noFlyZones = webServer.getNoFlyZones();
-		} catch (UnexpectedHTTPResponseException e) {
-			System.out.println(e.getMessage());
+			return webServer.getNoFlyZones();
+		} catch (DataRetrievalException e) {
+			System.out.printf("Fatal error: %s. Exiting...%n", e.getMessage());
 			System.exit(1);
-		}		
+			return null;  // Method always needs to return something
+		}
 	}
 
-	private static boolean attemptFlight(Pilot pilot, List<Sensor> route) {
+    private static List<Sensor> retrieveSensors(WebServer webServer, String day, String month, String year) {
+    	long stageStart = Metrics.start();
+    	try {
+    		return webServer.getSensors(day, month, year);
+    	} catch (DataRetrievalException e) {
+    		System.out.printf("Fatal error: %s. Exiting...%n", e.getMessage());
+    		System.exit(1);
+    		return null;  // Method always needs to return something
+    	} finally {
+    		stageTimer("retrieve_sensors").stop(stageStart);
+    	}
+    }
+
+	// flight names the flight in the message printed if it fails (e.g. "01-01-2020" or "01-01-2020: Drone 2")
+	private static boolean attemptFlight(Pilot pilot, List<Sensor> route, String flight) {
     	boolean completed = pilot.followRoute(route);
     	if (!completed) {
-    		System.out.printf("Did not manage to return to starting point. Map and log will still be generated.%n", Drone.MAX_MOVES);
+    		System.out.printf("%s: Did not manage to return to starting point. Map and log will still be generated.%n", flight);
     		return false;
     	}
     	return true;
 	}
 
 	private static void outputResults(Pilot pilot, String day, String month, String year) {
-    	var map = FlightMap.generateFromFlightData(pilot.getPathTaken(), pilot.getSensorsVisited());
-    	
-    	var flightpathFname = String.format("flightpath-%s-%s-%s.txt", day, month, year);
-    	var readingsFname =  String.format("readings-%s-%s-%s.geojson", day, month, year);
+    	var flightpathFname = flightpathName(day, month, year) + ".txt";  // Already written during the flight
+    	var readingsFname = readingsFilename(day, month, year);
     	try {
-    		writeFile(flightpathFname, pilot.getLog());
-    		writeFile(readingsFname, map.toJson());
+    		FlightMap.writeFromFlightData(Paths.get(readingsFname), pilot.getPathTaken(), pilot.getSensorsVisited());
     	} catch (IOException e) {
     		System.out.println("Fatal error: Failed to write output files. Exiting...");
     		System.exit(1);
     	}
-    	
+
     	System.out.printf("%s and %s created successfully!%n", flightpathFname, readingsFname);
     }
-    
+
+    // Opens name.txt (and name.bin alongside it, if flightRecords is true)
+    private static FlightLogSink openFlightLog(String name, boolean flightRecords) throws IOException {
+    	var textLog = FileFlightLog.create(Paths.get(name + ".txt"));
+    	if (!flightRecords) {
+    		return textLog;
+    	}
+    	try {
+    		var binaryLog = BinaryFlightLog.create(Paths.get(name + ".bin"));
+    		return FlightLogSink.both(textLog, binaryLog);
+    	} catch (IOException e) {
+    		textLog.close();
+    		throw e;
+    	}
+    }
+
+    // The date as it appears in the output file names and messages, DD-MM-YYYY
+    private static String dateLabel(String day, String month, String year) {
+    	return String.format("%s-%s-%s", day, month, year);
+    }
+
+    // File name of the flight log for the date, without the extension
+    private static String flightpathName(String day, String month, String year) {
+    	return String.format("flightpath-%s-%s-%s", day, month, year);
+    }
+
+    private static String readingsFilename(String day, String month, String year) {
+    	return String.format("readings-%s-%s-%s.geojson", day, month, year);
+    }
+
+    // Timer for one stage of the run (looked up each time rather than kept in a field, so App never loads Metrics early)
+    private static Metrics.Distribution stageTimer(String stage) {
+    	return Metrics.timer("aqmaps_stage_seconds", "stage", stage, "Time spent in each stage of the run (summed over dates)");
+    }
+
+    private static void checkMetricsFormat(String format) {
+    	if (!format.equals("json") && !format.equals("prometheus")) {
+    		System.out.printf("Fatal error: Unknown metrics format '%s' (expected json or prometheus). Exiting...%n", format);
+    		System.exit(1);
+    	}
+    }
+
+    private static void writeMetrics(String format) {
+    	var filename = format.equals("json") ? "metrics.json" : "metrics.prom";
+    	try {
+    		writeFile(filename, format.equals("json") ? Metrics.toJson() : Metrics.toPrometheus());
+    	} catch (IOException e) {
+    		System.out.println("Fatal error: Failed to write metrics file. Exiting...");
+    		System.exit(1);
+    	}
+    	System.out.printf("%s created successfully!%n", filename);
+    }
+
     private static void writeFile(String filename, String contents) throws IOException {
 		var file = new File(filename);
 		if (file.exists()) {
 			file.delete();
 		}
 		file.createNewFile();
-		
+
     	var writer = new FileWriter(filename);
     	writer.write(contents);
     	writer.close();
     }
-    
+
+    // Returns the arguments that aren't --options, in the order they were given
+    private static List<String> positionalArgs(String[] args) {
+    	var positional = new ArrayList<String>();
+    	for (var arg : args) {
+    		if (!arg.startsWith("--")) {
+    			positional.add(arg);
+    		}
+    	}
+    	return positional;
+    }
+
+    // Returns the --name=value options as a map of name to value (options without a value map to "")
+    private static Map<String, String> options(String[] args) {
+    	var options = new HashMap<String, String>();
+    	for (var arg : args) {
+    		if (arg.startsWith("--")) {
+    			int equals = arg.indexOf('=');
+    			if (equals == -1) {
+    				options.put(arg.substring(2), "");
+    			} else {
+    				options.put(arg.substring(2, equals), arg.substring(equals + 1));
+    			}
+    		}
+    	}
+    	return options;
+    }
+
+    private static TourOptimiser chooseOptimiser(String name) {
+    	var optimiser = TourOptimiser.named(name);
+    	if (optimiser.isEmpty()) {
+    		var names = TourOptimiser.ALL.stream().map(TourOptimiser::getName).collect(Collectors.joining(", "));
+    		System.out.printf("Fatal error: Unknown planner \"%s\" (expected one of %s). Exiting...%n", name, names);
+    		System.exit(1);
+    	}
+    	return optimiser.get();
+    }
+
+    private static DetourPlanner chooseDetourPlanner(String name) {
+    	var detourPlanner = DetourPlanner.named(name);
+    	if (detourPlanner.isEmpty()) {
+    		var names = DetourPlanner.ALL.stream().map(DetourPlanner::getName).collect(Collectors.joining(", "));
+    		System.out.printf("Fatal error: Unknown detour planner \"%s\" (expected one of %s). Exiting...%n", name, names);
+    		System.exit(1);
+    	}
+    	return detourPlanner.get();
+    }
+
+    private static int parseCount(String count, String what) {
+    	try {
+    		int parsed = Integer.parseInt(count);
+    		if (parsed >= 1) {
+    			return parsed;
+    		}
+    	} catch (NumberFormatException e) {
+    		// Falls through to the error below
+    	}
+    	System.out.printf("Fatal error: Invalid %s '%s' (expected a whole number of at least 1). Exiting...%n", what, count);
+    	System.exit(1);
+    	return 1;  // Method always needs to return something
+    }
+
+    private static LocalDate parseOptionDate(String date) {
+    	try {
+    		return LocalDate.parse(date, OPTION_DATE_FORMAT);
+    	} catch (DateTimeParseException e) {
+    		System.out.printf("Fatal error: Could not read date \"%s\" (expected DD-MM-YYYY). Exiting...%n", date);
+    		System.exit(1);
+    		return null;  // Method always needs to return something
+    	}
+    }
+
 }
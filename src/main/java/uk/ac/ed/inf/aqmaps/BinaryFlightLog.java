@@ -0,0 +1,137 @@
+package uk.ac.ed.inf.aqmaps;
+
+import static uk.ac.ed.inf.aqmaps.FlightRecords.ADDRESS_LENGTH_LIMIT;
+import static uk.ac.ed.inf.aqmaps.FlightRecords.FORMAT_VERSION;
+import static uk.ac.ed.inf.aqmaps.FlightRecords.HEADER_BYTES;
+import static uk.ac.ed.inf.aqmaps.FlightRecords.INCOMPLETE;
+import static uk.ac.ed.inf.aqmaps.FlightRecords.MAGIC_NUMBER;
+import static uk.ac.ed.inf.aqmaps.FlightRecords.NO_SENSOR;
+import static uk.ac.ed.inf.aqmaps.FlightRecords.RECORD_BYTES;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.mapbox.geojson.Point;
+
+// Writes the flight log as fixed-width binary flight records (see FlightRecords for the layout) as the drone flies
+// Records go out through the buffer like FileFlightLog's lines, the what-3-words address table and the final record
+// count are written when the log is closed after finish() (until then, or if it's closed without finishing, readers
+// see the file as incomplete)
+class BinaryFlightLog implements FlightLogSink {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+	// Every address read so far, in the order they were first read, numbered from 0
+	private final Map<String, Integer> addressIds = new LinkedHashMap<>();
+	private long recordCount = 0;
+	private boolean finished = false;
+
+	private BinaryFlightLog(FileChannel channel) {
+		this.channel = channel;
+	}
+
+	// Creates (or empties, if it already exists) the file and returns a log that writes to it
+	static BinaryFlightLog create(Path file) throws IOException {
+		var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		var log = new BinaryFlightLog(channel);
+		log.buffer.putInt(MAGIC_NUMBER).putInt(FORMAT_VERSION).putLong(INCOMPLETE).putLong(INCOMPLETE);
+		return log;
+	}
+
+	@Override
+	public void logMove(int moveNumber, Point previousPosition, int bearing, Point newPosition, String w3wAddress) {
+		if (buffer.remaining() < RECORD_BYTES) {
+			flush();
+		}
+		buffer.putDouble(previousPosition.longitude())
+				.putDouble(previousPosition.latitude())
+				.putDouble(newPosition.longitude())
+				.putDouble(newPosition.latitude())
+				.putInt(moveNumber)
+				.putShort((short) bearing)
+				.putShort(addressId(w3wAddress));
+		recordCount++;
+	}
+
+	@Override
+	public void flush() {
+		try {
+			writeBuffer();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void finish() {
+		finished = true;
+	}
+
+	// Writes out the remaining records and the address table, then fills in the header
+	// A log that was never finished is just closed, its header still says it's incomplete
+	@Override
+	public void close() throws IOException {
+		try {
+			if (!finished) {
+				return;
+			}
+			writeBuffer();
+			long addressTableOffset = HEADER_BYTES + recordCount * RECORD_BYTES;
+			buffer.putInt(addressIds.size());
+			for (var address : addressIds.keySet()) {
+				var bytes = address.getBytes(StandardCharsets.UTF_8);
+				if (buffer.remaining() < 2 + bytes.length) {
+					writeBuffer();
+				}
+				buffer.putShort((short) bytes.length).put(bytes);
+			}
+			writeBuffer();
+
+			var header = ByteBuffer.allocate(HEADER_BYTES);
+			header.putInt(MAGIC_NUMBER).putInt(FORMAT_VERSION).putLong(recordCount).putLong(addressTableOffset).flip();
+			while (header.hasRemaining()) {
+				channel.write(header, header.position());
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	// Returns the id of the address ("null", meaning no sensor was read, is NO_SENSOR)
+	private short addressId(String w3wAddress) {
+		if (w3wAddress.equals("null")) {
+			return NO_SENSOR;
+		}
+		var id = addressIds.get(w3wAddress);
+		if (id == null) {
+			if (addressIds.size() > Short.MAX_VALUE) {
+				throw new IllegalStateException("Too many different sensors in one flight record file");
+			}
+			if (w3wAddress.getBytes(StandardCharsets.UTF_8).length > ADDRESS_LENGTH_LIMIT) {
+				throw new IllegalArgumentException("what-3-words address is too long for a flight record file: " + w3wAddress);
+			}
+			id = addressIds.size();
+			addressIds.put(w3wAddress, id);
+		}
+		return (short) (int) id;
+	}
+
+	private void writeBuffer() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+}
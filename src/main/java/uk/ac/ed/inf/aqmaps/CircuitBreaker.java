@@ -0,0 +1,64 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.time.Duration;
+
+// Stops requests being sent to a server that keeps failing, so a batch of dates fails fast while the server is down
+// instead of every request sitting through its timeouts and retries
+//   closed     requests go through as normal, until failureThreshold of them in a row have failed
+//   open       requests are turned away without being sent, until openDuration has passed
+//   half open  one trial request is let through: if it works the breaker closes again, if not it opens again
+// Shared by every thread making requests, so all of its state is guarded by the breaker's lock
+class CircuitBreaker {
+
+	static final int DEFAULT_FAILURE_THRESHOLD = 20;
+	static final Duration DEFAULT_OPEN_DURATION = Duration.ofSeconds(5);
+
+	private static final Metrics.Counter OPENED = Metrics.counter("aqmaps_http_circuit_opened_total", "Times too many failed requests in a row opened the circuit breaker");
+	private static final Metrics.Counter REJECTED = Metrics.counter("aqmaps_http_circuit_rejected_total", "Requests turned away without being sent because the circuit breaker was open");
+
+	private enum State { CLOSED, OPEN, HALF_OPEN }
+
+	private final int failureThreshold;
+	private final long openNanos;
+
+	private State state = State.CLOSED;
+	private int consecutiveFailures = 0;
+	private long openedAt;
+
+	public CircuitBreaker() {
+		this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_DURATION);
+	}
+
+	public CircuitBreaker(int failureThreshold, Duration openDuration) {
+		this.failureThreshold = failureThreshold;
+		this.openNanos = openDuration.toNanos();
+	}
+
+	// Returns true if a request may be sent now (it must then be reported with recordSuccess or recordFailure)
+	synchronized boolean allowRequest() {
+		if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+			state = State.HALF_OPEN;
+			return true;  // This is the trial request
+		}
+		if (state == State.CLOSED) {
+			return true;
+		}
+		REJECTED.increment();
+		return false;
+	}
+
+	synchronized void recordSuccess() {
+		state = State.CLOSED;
+		consecutiveFailures = 0;
+	}
+
+	synchronized void recordFailure() {
+		consecutiveFailures++;
+		if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+			state = State.OPEN;
+			openedAt = System.nanoTime();
+			OPENED.increment();
+		}
+	}
+
+}
@@ -0,0 +1,82 @@
+package uk.ac.ed.inf.aqmaps;
+
+// A tour stored as a cycle (the start/end point only appears once) along with where each node is in it
+// This lets the neighbour list optimisers find a node's neighbours in the tour in constant time
+class CyclicTour {
+
+	private final int size;
+	private final int[] order;     // order[p] is the node at position p
+	private final int[] position;  // position[node] is the position of node in order
+
+	// Creates a cycle from a tour (with the start/end point at both ends)
+	public CyclicTour(int[] tour) {
+		size = tour.length - 1;
+		order = new int[size];
+		position = new int[size];
+		for (int p = 0; p < size; p++) {
+			order[p] = tour[p];
+			position[tour[p]] = p;
+		}
+	}
+
+	public int next(int node) {
+		int p = position[node] + 1;
+		return order[(p == size) ? 0 : p];
+	}
+
+	public int prev(int node) {
+		int p = position[node] - 1;
+		return order[(p < 0) ? size - 1 : p];
+	}
+
+	// Removes the edges a-b and c-d and adds the edges a-c and b-d (a 2-opt move)
+	// b must follow a and d must follow c when going around the cycle in the same direction (either direction works)
+	public void flip(int a, int b, int c, int d) {
+		if (next(a) == b) {
+			reversePath(b, c);
+		} else {
+			reversePath(a, d);
+		}
+	}
+
+	// Writes the cycle back into tour, rotated so that the start/end point (node 0) is at both ends
+	public void writeTo(int[] tour) {
+		int start = position[0];
+		for (int i = 0; i < size; i++) {
+			int p = start + i;
+			tour[i] = order[(p >= size) ? p - size : p];
+		}
+		tour[size] = 0;
+	}
+
+	// Reverses the path going forwards from node "from" to node "to" (inclusive)
+	// Reversing the rest of the cycle instead gives the same cycle (just facing the other way), so whichever is shorter gets reversed
+	private void reversePath(int from, int to) {
+		int i = position[from];
+		int j = position[to];
+		int length = Math.floorMod(j - i, size) + 1;
+		if (length * 2 > size) {
+			int newI = j + 1;
+			j = i - 1;
+			i = newI;
+			length = size - length;
+		}
+		for (int swaps = length / 2; swaps > 0; swaps--) {
+			if (i == size) {
+				i = 0;
+			}
+			if (j < 0) {
+				j = size - 1;
+			}
+			int nodeI = order[i];
+			int nodeJ = order[j];
+			order[i] = nodeJ;
+			position[nodeJ] = i;
+			order[j] = nodeI;
+			position[nodeI] = j;
+			i++;
+			j--;
+		}
+	}
+
+}
@@ -0,0 +1,18 @@
+package uk.ac.ed.inf.aqmaps;
+
+// Thrown when data couldn't be retrieved from the web server, for whatever reason
+// The subclasses say why: an unexpected response, the server being unreachable, or every retry failing
+// Messages are ready to print as they are
+public class DataRetrievalException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	public DataRetrievalException(String message) {
+		super(message);
+	}
+	
+	public DataRetrievalException(String message, Throwable cause) {
+		super(message, cause);
+	}
+	
+}
@@ -0,0 +1,36 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.List;
+import java.util.Optional;
+
+import com.mapbox.geojson.Point;
+
+// Works out how the drone should get around a no-fly-zone that blocks the direct move towards a waypoint
+// Implementations can be swapped in to trade search time for shorter detours
+interface DetourPlanner {
+
+	// Every detour planner that can be picked by name (e.g. with the --detour option)
+	List<DetourPlanner> ALL = List.of(
+			new AStarDetourPlanner(),
+			new WallFollowerDetourPlanner(),
+			new WallFollowerDetourPlanner("wide-wall-follower", 10, 20));
+
+	// Used by Pilots that aren't given a detour planner
+	DetourPlanner DEFAULT = ALL.get(0);
+
+	// Returns the bearings the drone should take from start to get around the obstruction, or an empty list if
+	// no way around could be found. The drone doesn't have to be in range of the goal after the last bearing,
+	// the Pilot carries on towards the goal as normal once the precomputed bearings run out
+	// movesLeft is how many moves the drone has left, planners can use it to give up on detours it could never finish
+	List<Integer> pathAround(Point start, Waypoint goal, int movesLeft, NoFlyZoneChecker noFlyZoneChecker);
+
+	String getName();
+
+	// Returns the detour planner with the provided name, if there is one
+	static Optional<DetourPlanner> named(String name) {
+		return ALL.stream()
+				.filter(planner -> planner.getName().equals(name))
+				.findFirst();
+	}
+
+}
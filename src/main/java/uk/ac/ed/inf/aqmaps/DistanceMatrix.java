@@ -0,0 +1,108 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.List;
+
+import com.mapbox.geojson.Point;
+
+// Distances between every pair of nodes in a route, where node 0 is the start/end point and node i is sensor i-1
+// Up to MAX_PRECOMPUTED_NODES nodes the distances are all computed up front into one flat array,
+// past that the matrix would be too big to keep in memory so distances are computed when they're asked for
+// The "distances" don't have to be euclidean, they can be any symmetric cost (see FlightCosts)
+class DistanceMatrix {
+
+	// 4000 nodes is 16 million doubles, about 128MB
+	private static final int MAX_PRECOMPUTED_NODES = 4000;
+
+	private final int size;
+	private final double[] longitudes;
+	private final double[] latitudes;
+
+	// distances[a*size + b] is the distance between node a and node b (null if not precomputed)
+	private final double[] distances;
+	private final boolean euclidean;
+
+	private DistanceMatrix(double[] longitudes, double[] latitudes, double[] distances, boolean euclidean) {
+		this.size = longitudes.length;
+		this.longitudes = longitudes;
+		this.latitudes = latitudes;
+		this.distances = distances;
+		this.euclidean = euclidean;
+	}
+
+	// Creates the matrix for a route that starts and ends at start and visits each of the sensors
+	public static DistanceMatrix fromStartAndSensors(Point start, List<Sensor> sensors) {
+		var longitudes = longitudes(start, sensors);
+		var latitudes = latitudes(start, sensors);
+		var distances = (longitudes.length <= MAX_PRECOMPUTED_NODES) ? precomputeDistances(longitudes, latitudes) : null;
+		return new DistanceMatrix(longitudes, latitudes, distances, true);
+	}
+
+	// Creates a matrix with the provided costs, where costs[a*size + b] is the (symmetric) cost between node a and node b
+	public static DistanceMatrix fromCosts(Point start, List<Sensor> sensors, double[] costs) {
+		return new DistanceMatrix(longitudes(start, sensors), latitudes(start, sensors), costs, false);
+	}
+
+	private static double[] longitudes(Point start, List<Sensor> sensors) {
+		var longitudes = new double[sensors.size() + 1];
+		longitudes[0] = start.longitude();
+		for (int i = 0; i < sensors.size(); i++) {
+			longitudes[i + 1] = sensors.get(i).getPoint().longitude();
+		}
+		return longitudes;
+	}
+
+	private static double[] latitudes(Point start, List<Sensor> sensors) {
+		var latitudes = new double[sensors.size() + 1];
+		latitudes[0] = start.latitude();
+		for (int i = 0; i < sensors.size(); i++) {
+			latitudes[i + 1] = sensors.get(i).getPoint().latitude();
+		}
+		return latitudes;
+	}
+
+	// Returns the distance/cost between node a and node b (see isEuclidean)
+	public double between(int a, int b) {
+		if (distances != null) {
+			return distances[a*size + b];
+		}
+		return euclidean(longitudes, latitudes, a, b);
+	}
+
+	// Returns true if the distances are straight line distances between the nodes' points
+	public boolean isEuclidean() {
+		return euclidean;
+	}
+
+	public double longitude(int node) {
+		return longitudes[node];
+	}
+
+	public double latitude(int node) {
+		return latitudes[node];
+	}
+
+	// Returns the number of nodes (sensors + 1 for the start/end point)
+	public int size() {
+		return size;
+	}
+
+	private static double[] precomputeDistances(double[] longitudes, double[] latitudes) {
+		int size = longitudes.length;
+		var output = new double[size*size];
+		for (int a = 0; a < size; a++) {
+			for (int b = a + 1; b < size; b++) {  // Distance is symmetric so only half of it needs computing
+				double distance = euclidean(longitudes, latitudes, a, b);
+				output[a*size + b] = distance;
+				output[b*size + a] = distance;
+			}
+		}
+		return output;
+	}
+
+	private static double euclidean(double[] longitudes, double[] latitudes, int a, int b) {
+		double dLong = longitudes[a] - longitudes[b];
+		double dLat = latitudes[a] - latitudes[b];
+		return Math.sqrt(dLong*dLong + dLat*dLat);
+	}
+
+}
@@ -2,7 +2,7 @@ package uk.ac.ed.inf.aqmaps;
 
 import com.mapbox.geojson.Point;
 
-import static uk.ac.ed.inf.aqmaps.PointUtils.moveDestination;
+import static uk.ac.ed.inf.aqmaps.LookupPointUtils.moveDestination;
 import static uk.ac.ed.inf.aqmaps.PointUtils.inRange;
 
 public class Drone {
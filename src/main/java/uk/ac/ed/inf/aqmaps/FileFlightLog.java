@@ -0,0 +1,82 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.mapbox.geojson.Point;
+
+// Streams the flight log into a file as the drone flies, instead of building the whole log up as one String
+// Each line is formatted into a reused StringBuilder, encoded into a reused buffer and written through a FileChannel
+// whenever the buffer fills up or the Pilot arrives at a waypoint, so the file grows as the flight goes on
+class FileFlightLog implements FlightLogSink {
+
+	// Comfortably more than a whole 150 move flight, so a flight costs just one write per waypoint
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	// Longest a single line can sensibly be (a what-3-words address is nowhere near this long)
+	private static final int MAX_LINE_BYTES = 1024;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final StringBuilder line = new StringBuilder(128);
+	private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+
+	private FileFlightLog(FileChannel channel) {
+		this.channel = channel;
+	}
+
+	// Creates (or empties, if it already exists) the file and returns a log that writes to it
+	static FileFlightLog create(Path file) throws IOException {
+		var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		return new FileFlightLog(channel);
+	}
+
+	@Override
+	public void logMove(int moveNumber, Point previousPosition, int bearing, Point newPosition, String w3wAddress) {
+		line.setLength(0);
+		FlightLogFormat.appendMove(line, moveNumber, previousPosition, bearing, newPosition, w3wAddress);
+		if (buffer.remaining() < MAX_LINE_BYTES) {
+			flush();
+		}
+		encoder.reset();
+		var result = encoder.encode(CharBuffer.wrap(line), buffer, true);
+		if (result.isOverflow() || result.isError()) {
+			throw new UncheckedIOException(new IOException("Flight log line could not be encoded: " + line));
+		}
+	}
+
+	@Override
+	public void flush() {
+		try {
+			writeBuffer();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	// Writes out whatever is left in the buffer and closes the file
+	@Override
+	public void close() throws IOException {
+		try {
+			writeBuffer();
+		} finally {
+			channel.close();
+		}
+	}
+
+	private void writeBuffer() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+}
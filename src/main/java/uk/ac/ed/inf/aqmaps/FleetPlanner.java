@@ -0,0 +1,119 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import com.mapbox.geojson.Point;
+
+// Splits a day's sensors between a fleet of drones that all start and finish at the same point
+// Route first, cluster second: one tour through every sensor is planned as usual, then cut into (at most) one contiguous
+// piece per drone so that the longest of the resulting routes (in estimated moves, as SensorSelector counts them) is as
+// short as possible. Each drone only has MAX_MOVES moves, so keeping the longest route short is what lets the fleet cover
+// the most sensors, and it balances the flights too. If even the best split leaves a route over budget, a warning is printed
+// Each piece is then planned again on its own (it's a much smaller problem, so the optimiser often shortens it further)
+class FleetPlanner {
+
+	private FleetPlanner() {
+	}
+
+	// Returns the sensors each drone should visit (one list per drone, never empty, at most drones of them)
+	public static List<List<Sensor>> split(Point start, List<Sensor> sensors, int drones, RoutePlanner planner) {
+		if (drones < 1) {
+			throw new IllegalArgumentException("A fleet needs at least one drone");
+		}
+		if (sensors.isEmpty()) {
+			return new ArrayList<>();
+		}
+
+		// The single tour through every sensor, and the costs it was planned with
+		var tour = planner.planEverySensor(start, sensors).getRoute();
+		var distances = planner.costsFor(start, sensors);
+		var nodes = nodesOf(tour, sensors);
+
+		// cuts[m][j] is where the last of the m routes covering tour[0..j) starts, in the best split of that part of the tour
+		int n = tour.size();
+		int routes = Math.min(drones, n);
+		var cuts = bestCuts(nodes, routes, distances);
+
+		// Walk back through the cuts to get each drone's piece of the tour
+		var pieces = new ArrayList<List<Sensor>>();
+		double longestMoves = 0;
+		int end = n;
+		for (int m = routes; m > 0; m--) {
+			int begin = cuts[m][end];
+			pieces.add(0, new ArrayList<>(tour.subList(begin, end)));
+			longestMoves = Math.max(longestMoves, pieceMoves(nodes, begin, end, distances));
+			end = begin;
+		}
+		if (longestMoves > Drone.MAX_MOVES) {
+			System.out.printf("Warning: The longest of the %d drones' routes needs about %.0f moves, more than the %d a drone has "
+					+ "(it will run out of moves before reading every sensor)%n", pieces.size(), longestMoves, Drone.MAX_MOVES);
+		}
+		return pieces;
+	}
+
+	// Estimated moves to fly from the start through nodes[begin..end) and back
+	private static double pieceMoves(int[] nodes, int begin, int end, DistanceMatrix distances) {
+		double moves = SensorSelector.estimatedMoves(distances, 0, nodes[begin]);
+		for (int t = begin + 1; t < end; t++) {
+			moves += SensorSelector.estimatedMoves(distances, nodes[t - 1], nodes[t]);
+		}
+		return moves + SensorSelector.estimatedMoves(distances, nodes[end - 1], 0);
+	}
+
+	// Dynamic programming over the tour: best[m][j] is the smallest possible longest route when m drones cover the first
+	// j sensors of the tour, and cuts[m][j] remembers where the m-th drone's piece starts in that split
+	// Costs of a piece (in estimated moves) come from prefix sums of the tour's legs, so this is O(drones * n^2)
+	private static int[][] bestCuts(int[] nodes, int drones, DistanceMatrix distances) {
+		int n = nodes.length;
+
+		// legs[t] is the estimated moves to fly the tour from nodes[0] to nodes[t] (without the start point)
+		var legs = new double[n];
+		for (int t = 1; t < n; t++) {
+			legs[t] = legs[t - 1] + SensorSelector.estimatedMoves(distances, nodes[t - 1], nodes[t]);
+		}
+
+		var best = new double[drones + 1][n + 1];
+		var cuts = new int[drones + 1][n + 1];
+		for (var row : best) {
+			Arrays.fill(row, Double.POSITIVE_INFINITY);
+		}
+		best[0][0] = 0;
+
+		for (int m = 1; m <= drones; m++) {
+			for (int j = m; j <= n; j++) {              // Every drone gets at least one sensor
+				int last = nodes[j - 1];
+				for (int i = m - 1; i < j; i++) {        // The m-th drone flies nodes[i..j-1]
+					if (best[m - 1][i] == Double.POSITIVE_INFINITY) {
+						continue;
+					}
+					int first = nodes[i];
+					double piece = SensorSelector.estimatedMoves(distances, 0, first) + (legs[j - 1] - legs[i])
+							+ SensorSelector.estimatedMoves(distances, last, 0);
+					double longest = Math.max(best[m - 1][i], piece);
+					if (longest < best[m][j]) {
+						best[m][j] = longest;
+						cuts[m][j] = i;
+					}
+				}
+			}
+		}
+		return cuts;
+	}
+
+	// The DistanceMatrix node of each sensor in the tour (sensor i of sensors is node i+1)
+	private static int[] nodesOf(List<Sensor> tour, List<Sensor> sensors) {
+		var nodeOf = new IdentityHashMap<Sensor, Integer>();
+		for (int i = 0; i < sensors.size(); i++) {
+			nodeOf.put(sensors.get(i), i + 1);
+		}
+		var nodes = new int[tour.size()];
+		for (int t = 0; t < tour.size(); t++) {
+			nodes[t] = nodeOf.get(tour.get(t));
+		}
+		return nodes;
+	}
+
+}
@@ -0,0 +1,123 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+import com.mapbox.geojson.Point;
+
+// Planning costs that take the no-fly-zones into account
+// The cost of flying between two points is the number of moves a Pilot actually takes to get from one to the other,
+// so detours around buildings are priced in when the route is planned rather than discovered halfway through the flight
+// One FlightCosts should be kept per set of no-fly-zones, since it remembers every flight it has measured
+// Flights are keyed on their exact start and end points, so a long-running user that plans from arbitrary start points
+// should give it a limit on how many flights it remembers (the least recently used are forgotten first)
+class FlightCosts {
+
+	// Cost given to flights the drone can't make, big enough that the optimisers will avoid them if at all possible
+	private static final double UNREACHABLE_COST = 10.0 * Drone.MAX_MOVES;
+
+	private final NoFlyZoneChecker noFlyZoneChecker;
+	private final DetourPlanner detourPlanner;
+
+	// Moves taken for every flight measured so far (UNREACHABLE_COST if the drone couldn't make it)
+	private final Map<Flight, Double> measuredCosts;
+
+	// The detour planner should be the same one the Pilot flies with, otherwise the costs won't match the real flights
+	// Remembers every flight it measures, which suits App (one start point per run, and a fixed set of sensors)
+	public FlightCosts(NoFlyZoneChecker noFlyZoneChecker, DetourPlanner detourPlanner) {
+		this.noFlyZoneChecker = noFlyZoneChecker;
+		this.detourPlanner = detourPlanner;
+		this.measuredCosts = new ConcurrentHashMap<>();
+	}
+
+	// Same as above, but only remembers the maxFlights most recently used flights
+	public FlightCosts(NoFlyZoneChecker noFlyZoneChecker, DetourPlanner detourPlanner, int maxFlights) {
+		this.noFlyZoneChecker = noFlyZoneChecker;
+		this.detourPlanner = detourPlanner;
+		this.measuredCosts = Collections.synchronizedMap(new LinkedHashMap<Flight, Double>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Flight, Double> eldest) {
+				return size() > maxFlights;
+			}
+		});
+	}
+
+	// Returns a DistanceMatrix (node 0 is start, node i is sensor i-1) of the number of moves between each pair of nodes
+	// Flights can take a different number of moves in each direction, so the cost between two nodes is the average of both
+	// Each row is measured in parallel since every flight is independent
+	public DistanceMatrix matrixFor(Point start, List<Sensor> sensors) {
+		int size = sensors.size() + 1;
+		var waypoints = new Waypoint[size];
+		waypoints[0] = new StartEndPoint(start);
+		for (int i = 0; i < sensors.size(); i++) {
+			waypoints[i + 1] = sensors.get(i);
+		}
+
+		var costs = new double[size * size];
+		IntStream.range(0, size).parallel().forEach(a -> {
+			for (int b = a + 1; b < size; b++) {
+				double cost = (costBetween(waypoints[a], waypoints[b]) + costBetween(waypoints[b], waypoints[a])) / 2.0;
+				costs[a*size + b] = cost;  // Each pair is only written by one thread, so no locking is needed
+				costs[b*size + a] = cost;
+			}
+		});
+		return DistanceMatrix.fromCosts(start, sensors, costs);
+	}
+
+	// Returns the number of moves it takes to fly from one waypoint until the drone is in range of the other
+	private double costBetween(Waypoint from, Waypoint to) {
+		var flight = new Flight(from.getPoint(), to.getPoint(), to instanceof StartEndPoint);
+		var cost = measuredCosts.get(flight);
+		if (cost == null) {
+			// Not using computeIfAbsent here, it would hold a lock on part of the map for the whole trial flight
+			var moves = Pilot.movesBetween(from.getPoint(), to, noFlyZoneChecker, detourPlanner);
+			cost = moves.isPresent() ? moves.getAsInt() : UNREACHABLE_COST;
+			measuredCosts.putIfAbsent(flight, cost);
+		}
+		return cost;
+	}
+
+	// A flight from one point to another (the arrival distance depends on whether we're going back to the start)
+	private static class Flight {
+
+		private final double fromLongitude;
+		private final double fromLatitude;
+		private final double toLongitude;
+		private final double toLatitude;
+		private final boolean toStartEndPoint;
+
+		Flight(Point from, Point to, boolean toStartEndPoint) {
+			this.fromLongitude = from.longitude();
+			this.fromLatitude = from.latitude();
+			this.toLongitude = to.longitude();
+			this.toLatitude = to.latitude();
+			this.toStartEndPoint = toStartEndPoint;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Flight)) {
+				return false;
+			}
+			var flight = (Flight) other;
+			return fromLongitude == flight.fromLongitude
+					&& fromLatitude == flight.fromLatitude
+					&& toLongitude == flight.toLongitude
+					&& toLatitude == flight.toLatitude
+					&& toStartEndPoint == flight.toStartEndPoint;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(fromLongitude, fromLatitude, toLongitude, toLatitude, toStartEndPoint);
+		}
+	}
+
+}
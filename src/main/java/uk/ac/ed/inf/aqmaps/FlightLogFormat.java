@@ -0,0 +1,77 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import com.mapbox.geojson.Point;
+
+// Formats flightpath-*.txt lines exactly as String.format("%d,%f,%f,%d,%f,%f,%s%n", ...) would, without String.format
+// String.format parses the format string and creates a Formatter (and several other objects) on every call,
+// which was most of the cost of logging a move
+final class FlightLogFormat {
+
+	private static final String LINE_SEPARATOR = System.lineSeparator();
+
+	// %f always prints 6 decimal places
+	private static final int DECIMAL_PLACES = 6;
+	private static final double SCALE = 1e6;
+
+	// Above this the scaled value's rounding error could be big enough to matter, so BigDecimal does the formatting
+	private static final double FAST_PATH_LIMIT = 1e6;
+	// Scaled values this close to halfway between two outputs are also left to BigDecimal, since rounding error
+	// in value * SCALE could put them on either side. Far bigger than that error (< 1e-4 below FAST_PATH_LIMIT)
+	private static final double TIE_TOLERANCE = 1e-3;
+
+	private FlightLogFormat() {
+	}
+
+	// Appends the line (including the line separator) for one move to text
+	static void appendMove(StringBuilder text, int moveNumber, Point previousPosition, int bearing, Point newPosition, String w3wAddress) {
+		text.append(moveNumber).append(',');
+		appendFixed(text, previousPosition.longitude());
+		text.append(',');
+		appendFixed(text, previousPosition.latitude());
+		text.append(',').append(bearing).append(',');
+		appendFixed(text, newPosition.longitude());
+		text.append(',');
+		appendFixed(text, newPosition.latitude());
+		text.append(',').append(w3wAddress).append(LINE_SEPARATOR);
+	}
+
+	// Appends value the way %f formats it: 6 decimal places, rounded half up from the value's shortest decimal representation
+	// (the digits Double.toString gives, which is what Formatter rounds), and a minus sign for anything negative, even -0.0
+	static void appendFixed(StringBuilder text, double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			text.append(String.format("%f", value));  // "NaN", "Infinity" or "-Infinity", never happens for real positions
+			return;
+		}
+		double magnitude = Math.abs(value);
+		double scaled = magnitude * SCALE;
+		double fraction = scaled - Math.floor(scaled);
+		if (magnitude >= FAST_PATH_LIMIT || Math.abs(fraction - 0.5) < TIE_TOLERANCE) {
+			appendFixedExactly(text, value);
+			return;
+		}
+
+		long units = Math.round(scaled);  // The value in millionths, rounded (no ties get this far)
+		if (value < 0 || (value == 0 && 1 / value < 0)) {
+			text.append('-');
+		}
+		text.append(units / 1_000_000).append('.');
+		long millionths = units % 1_000_000;
+		for (long digit = 100_000; digit > millionths && digit > 1; digit /= 10) {
+			text.append('0');  // Leading zeros of the fractional part
+		}
+		text.append(millionths);
+	}
+
+	// The slow but sure way, for huge values and values right next to a tie
+	private static void appendFixedExactly(StringBuilder text, double value) {
+		if (value < 0 || (value == 0 && 1 / value < 0)) {
+			text.append('-');
+		}
+		var decimal = new BigDecimal(Double.toString(Math.abs(value)));
+		text.append(decimal.setScale(DECIMAL_PLACES, RoundingMode.HALF_UP).toPlainString());
+	}
+
+}
@@ -0,0 +1,73 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import com.mapbox.geojson.Point;
+
+// Where the Pilot writes a line of flightpath-*.txt for every move the drone makes
+// InMemoryFlightLog keeps the lines for getLog, FileFlightLog streams them straight into the file as the drone flies
+interface FlightLogSink extends Closeable {
+
+	// Throws every line away (for trial flights, which only care how many moves a flight takes)
+	FlightLogSink DISCARD = new FlightLogSink() {
+		@Override
+		public void logMove(int moveNumber, Point previousPosition, int bearing, Point newPosition, String w3wAddress) {
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	};
+
+	// Returns a sink that writes every move to both sinks (and closes both)
+	static FlightLogSink both(FlightLogSink first, FlightLogSink second) {
+		return new FlightLogSink() {
+			@Override
+			public void logMove(int moveNumber, Point previousPosition, int bearing, Point newPosition, String w3wAddress) {
+				first.logMove(moveNumber, previousPosition, bearing, newPosition, w3wAddress);
+				second.logMove(moveNumber, previousPosition, bearing, newPosition, w3wAddress);
+			}
+
+			@Override
+			public void flush() {
+				first.flush();
+				second.flush();
+			}
+
+			@Override
+			public void finish() {
+				first.finish();
+				second.finish();
+			}
+
+			@Override
+			public void close() throws IOException {
+				try {
+					first.close();
+				} finally {
+					second.close();
+				}
+			}
+		};
+	}
+
+	// Writes the line for move number moveNumber (counting from 1) from previousPosition to newPosition
+	// w3wAddress is the sensor read at the end of the move, or "null" if no sensor was read
+	// Sinks that write to a file throw an UncheckedIOException if the write fails
+	void logMove(int moveNumber, Point previousPosition, int bearing, Point newPosition, String w3wAddress);
+
+	// Pushes anything buffered out to wherever the sink writes to (the Pilot calls this after arriving at each waypoint)
+	void flush();
+
+	// Marks the log as complete, called once the flight is over and nothing more will be logged
+	// Sinks whose files have to be finalised (BinaryFlightLog) only do that on close if this was called first,
+	// so a flight cut short by an exception leaves a file that readers reject rather than one that looks complete
+	default void finish() {
+	}
+
+}
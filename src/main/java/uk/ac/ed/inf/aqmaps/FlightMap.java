@@ -1,8 +1,11 @@
 package uk.ac.ed.inf.aqmaps;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.mapbox.geojson.Feature;
 import com.mapbox.geojson.FeatureCollection;
@@ -32,6 +35,26 @@ public class FlightMap {
 		return FeatureCollection.fromFeatures(allFeatures);
 	}
 	
+	// Writes the same map as generateFromFlightData (byte for byte the same as its toJson) straight to the file,
+	// one marker at a time, without building the FeatureCollection or the JSON String in memory first
+	public static void writeFromFlightData(Path file, List<Point> flightpath, HashMap<Sensor, Boolean> sensorsAndVisitedStatus) throws IOException {
+		writeFromFleetData(file, List.of(flightpath), sensorsAndVisitedStatus);
+	}
+	
+	// Same as above, but for a fleet of drones: every sensor's marker, then one line for each drone's path
+	public static void writeFromFleetData(Path file, List<List<Point>> flightpaths, Map<Sensor, Boolean> sensorsAndVisitedStatus) throws IOException {
+		try (var writer = GeoJsonStreamWriter.create(file)) {
+			for (var entry : sensorsAndVisitedStatus.entrySet()) {
+				var sensor = entry.getKey();
+				boolean visited = entry.getValue();
+				writer.writeMarker(sensor.getPoint(), sensor.getW3wAddress(), markerColour(sensor, visited), markerSymbol(sensor, visited));
+			}
+			for (var flightpath : flightpaths) {
+				writer.writeLineString(flightpath);
+			}
+		}
+	}
+	
 	// Returns a list of Features (with appropriate properties) defining each marker on the map
 	private static List<Feature> createMarkerFeatures(HashMap<Sensor, Boolean> sensorsAndVisitedStatus) {
 		
@@ -46,20 +69,13 @@ public class FlightMap {
 			
 			marker.addStringProperty("location", sensor.getW3wAddress());
 			
-			if (!visited) {
-				marker.addStringProperty("rgb-string", GREY);
-				marker.addStringProperty("marker-color", GREY);
-			} else if (sensor.getBattery() < 10.0) {
-				marker.addStringProperty("rgb-string", BLACK);
-				marker.addStringProperty("marker-color", BLACK);
-				marker.addStringProperty("marker-symbol", "cross");
-			} else {
-				var reading = sensor.getReading();
-				var colour = pollutionToColour(reading);
-				
-				marker.addStringProperty("rgb-string", colour);
-				marker.addStringProperty("marker-color", colour);
-				marker.addStringProperty("marker-symbol", reading < 128 ? "lighthouse" : "danger");	
+			var colour = markerColour(sensor, visited);
+			marker.addStringProperty("rgb-string", colour);
+			marker.addStringProperty("marker-color", colour);
+			
+			var symbol = markerSymbol(sensor, visited);
+			if (symbol != null) {
+				marker.addStringProperty("marker-symbol", symbol);
 			}
 			// Add new marker to the list of all markers
 			markerFeatures.add(marker);
@@ -67,6 +83,26 @@ public class FlightMap {
 		return markerFeatures;
 	}
 	
+	// Grey if the sensor wasn't visited, black if its battery was too low to trust the reading, otherwise the reading's colour
+	private static String markerColour(Sensor sensor, boolean visited) {
+		if (!visited) {
+			return GREY;
+		} else if (sensor.getBattery() < 10.0) {
+			return BLACK;
+		}
+		return pollutionToColour(sensor.getReading());
+	}
+	
+	// Returns the marker's symbol, or null if it shouldn't have one (unvisited sensors)
+	private static String markerSymbol(Sensor sensor, boolean visited) {
+		if (!visited) {
+			return null;
+		} else if (sensor.getBattery() < 10.0) {
+			return "cross";
+		}
+		return sensor.getReading() < 128 ? "lighthouse" : "danger";
+	}
+	
 	// Returns the marker colour corresponding to reading
 	private static String pollutionToColour(double reading) {
 		// Integer division to get the right colour
@@ -0,0 +1,138 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.mapbox.geojson.BoundingBox;
+import com.mapbox.geojson.Point;
+
+// A long-running planning service for embedding the drone planner in another program (App is the one-shot command line)
+// Everything that's the same for every request is set up once and kept warm: the no-fly-zones are downloaded and
+// indexed (and the legal move bitmap built, if asked for) when the service starts, measured flight costs and
+// what-3-words coordinates are remembered between requests, and the sensors of recently used dates are kept too
+// Only the most recently used measured flights and dates are kept, so memory use stays bounded however many different
+// start points and dates are asked for
+// Like App, the what-3-words coordinates (and no-fly-zones and legal move bitmap) are kept on disk in the cache directory
+// so they also outlive the service, unless the no-cache option is passed
+//
+// Thread safe: plan, fly and render can be called from any number of threads at once, for any dates and start points
+// (each flight gets its own Drone and Pilot, everything shared between them is either read-only or concurrent)
+public class FlightPlanningService {
+
+	// How many dates' sensors are kept, the least recently used date is forgotten first
+	private static final int SENSOR_CACHE_DATES = 64;
+
+	// How many measured flights are kept for the flight-costs option (a date's sensors and start point need about 1000)
+	// Requests can come from any start point, so without a limit they would add flights forever
+	private static final int MEASURED_FLIGHTS_KEPT = 100_000;
+
+	private final WebServer webServer;
+	private final NoFlyZoneChecker noFlyZoneChecker;
+	private final DetourPlanner detourPlanner;
+	private final RoutePlanner planner;
+	private final ReplanningHook replanningHook;
+
+	private final Map<LocalDate, List<Sensor>> sensorCache = Collections.synchronizedMap(
+			new LinkedHashMap<LocalDate, List<Sensor>>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<LocalDate, List<Sensor>> eldest) {
+					return size() > SENSOR_CACHE_DATES;
+				}
+			});
+
+	FlightPlanningService(WebServer webServer, NoFlyZoneChecker noFlyZoneChecker, DetourPlanner detourPlanner, RoutePlanner planner,
+			ReplanningHook replanningHook) {
+		this.webServer = webServer;
+		this.noFlyZoneChecker = noFlyZoneChecker;
+		this.detourPlanner = detourPlanner;
+		this.planner = planner;
+		this.replanningHook = replanningHook;
+	}
+
+	// Starts a service that gets its data from webServer (see WebServer.create) and keeps drones in the confinement area
+	// options are the same as App's command line options, without the "--" (e.g. "planner" -> "lk", "flight-costs" -> "")
+	// the ones that make sense for a service are planner, detour, flight-costs, move-bitmap, within-budget, replan and no-cache
+	// Unless no-cache is passed, webServer is given a cache in ResourceCache.DEFAULT_DIRECTORY (replacing any it had)
+	// Throws DataRetrievalException if the no-fly-zones can't be retrieved, IllegalArgumentException for unknown names
+	public static FlightPlanningService start(WebServer webServer, BoundingBox confinementArea, Map<String, String> options) throws DataRetrievalException {
+		var optimiserName = options.getOrDefault("planner", "2-opt");
+		var optimiser = TourOptimiser.named(optimiserName)
+				.orElseThrow(() -> new IllegalArgumentException("Unknown planner: " + optimiserName));
+		var detourName = options.getOrDefault("detour", DetourPlanner.DEFAULT.getName());
+		var detourPlanner = DetourPlanner.named(detourName)
+				.orElseThrow(() -> new IllegalArgumentException("Unknown detour planner: " + detourName));
+
+		var cacheDirectory = Paths.get(ResourceCache.DEFAULT_DIRECTORY);
+		boolean caching = !options.containsKey("no-cache");
+		if (caching) {
+			webServer.setCache(ResourceCache.openIn(cacheDirectory));
+		}
+
+		var noFlyZoneChecker = new NoFlyZoneChecker(webServer.getNoFlyZones(), confinementArea);
+		if (options.containsKey("move-bitmap")) {
+			noFlyZoneChecker.useLegalMoveBitmap(caching
+					? LegalMoveBitmap.loadOrBuild(noFlyZoneChecker, confinementArea, cacheDirectory)
+					: LegalMoveBitmap.build(noFlyZoneChecker, confinementArea));
+		}
+		var flightCosts = options.containsKey("flight-costs") ? new FlightCosts(noFlyZoneChecker, detourPlanner, MEASURED_FLIGHTS_KEPT) : null;
+		var selector = options.containsKey("within-budget") ? new SensorSelector() : null;
+		var replanningHook = options.containsKey("replan") ? new LocalSearchReplanner() : ReplanningHook.NONE;
+		return new FlightPlanningService(webServer, noFlyZoneChecker, detourPlanner, new RoutePlanner(optimiser, flightCosts, selector), replanningHook);
+	}
+
+	// Returns the sensors for the date (from the web server the first time, then from memory)
+	public List<Sensor> sensorsFor(LocalDate date) throws DataRetrievalException {
+		var sensors = sensorCache.get(date);
+		if (sensors == null) {
+			// Not holding the lock while fetching, at worst two threads fetch the same date at once
+			sensors = Collections.unmodifiableList(webServer.getSensors(
+					String.format("%02d", date.getDayOfMonth()), String.format("%02d", date.getMonthValue()), String.valueOf(date.getYear())));
+			sensorCache.put(date, sensors);
+		}
+		return sensors;
+	}
+
+	// Plans a route from start through the sensors of the date
+	public PlannedRoute plan(LocalDate date, Point start) throws DataRetrievalException {
+		return plan(start, sensorsFor(date));
+	}
+
+	// Plans a route from start through the provided sensors
+	public PlannedRoute plan(Point start, List<Sensor> sensors) {
+		return planner.plan(start, sensors);
+	}
+
+	// Plans and flies a route from start through the sensors of the date
+	public FlightResult fly(LocalDate date, Point start) throws DataRetrievalException {
+		return fly(start, plan(date, start));
+	}
+
+	// Flies the planned route from start, with the flight log kept in memory
+	public FlightResult fly(Point start, PlannedRoute plannedRoute) {
+		var drone = new Drone(start);
+		var pilot = new Pilot(drone, noFlyZoneChecker, detourPlanner);
+		pilot.setReplanningHook(replanningHook);
+		pilot.markSkipped(plannedRoute.getSkipped());
+		boolean completed = pilot.followRoute(plannedRoute.getRoute());
+		return new FlightResult(plannedRoute, pilot.getPathTaken(), pilot.getSensorsVisited(), pilot.getLog(), drone.getTimesMoved(), completed);
+	}
+
+	// Returns the readings map of the flight (the contents of readings-*.geojson)
+	public String render(FlightResult flight) {
+		return FlightMap.generateFromFlightData(flight.getPathTaken(), flight.getSensorsVisited()).toJson();
+	}
+
+	// Writes the readings map of the flight to the file
+	public void render(FlightResult flight, Path file) throws IOException {
+		FlightMap.writeFromFlightData(file, flight.getPathTaken(), flight.getSensorsVisited());
+	}
+
+}
@@ -0,0 +1,204 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import com.mapbox.geojson.Point;
+
+// A memory mapped flight record file, the compact binary alternative to flightpath-*.txt written by BinaryFlightLog
+// Reading a record is a few absolute gets from the mapped file, so scanning months of flights needs no text parsing at all
+// (and the coordinates are the drone's exact positions, not rounded to 6 decimal places like the text log)
+//
+// Layout (big-endian, like the other files we write):
+//   header   magic "AQFR", format version, record count (long), offset of the address table (long)
+//   records  RECORD_BYTES each: from longitude, from latitude, to longitude, to latitude (doubles),
+//            move number (int), bearing (short), what-3-words address id (short, NO_SENSOR if no sensor was read)
+//   table    address count (int), then each address as a length (short) followed by that many bytes of UTF-8
+//
+// Also converts between the two formats, from the command line with:
+//   FlightRecords to-binary flightpath-DD-MM-YYYY.txt flightpath-DD-MM-YYYY.bin
+//   FlightRecords to-text flightpath-DD-MM-YYYY.bin flightpath-DD-MM-YYYY.txt
+public class FlightRecords {
+
+	static final int MAGIC_NUMBER = 0x41514652;  // "AQFR"
+	// Bump this whenever the layout changes
+	static final int FORMAT_VERSION = 1;
+	static final int HEADER_BYTES = 24;
+	static final int RECORD_BYTES = 4*8 + 4 + 2 + 2;
+
+	// Address id of moves that didn't end with a sensor reading
+	static final short NO_SENSOR = -1;
+	// Record count and table offset of a file whose log was never closed
+	static final long INCOMPLETE = -1;
+	// Longest address (in bytes of UTF-8) the table's length field can hold
+	static final int ADDRESS_LENGTH_LIMIT = Short.MAX_VALUE;
+
+	private final ByteBuffer records;
+	private final int recordCount;
+	private final String[] addresses;
+
+	private FlightRecords(ByteBuffer records, int recordCount, String[] addresses) {
+		this.records = records;
+		this.recordCount = recordCount;
+		this.addresses = addresses;
+	}
+
+	// Memory maps a flight record file, throwing IOException if it isn't a complete flight record file this version can read
+	public static FlightRecords open(Path file) throws IOException {
+		try (var channel = FileChannel.open(file)) {
+			// The mapping stays valid after the channel is closed
+			var mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (mapped.remaining() < HEADER_BYTES || mapped.getInt() != MAGIC_NUMBER || mapped.getInt() != FORMAT_VERSION) {
+				throw new IOException("Not a flight record file this version can read: " + file);
+			}
+			long recordCount = mapped.getLong();
+			long addressTableOffset = mapped.getLong();
+			if (recordCount == INCOMPLETE) {
+				throw new IOException("Flight record file was never finished: " + file);
+			}
+			if (recordCount < 0 || addressTableOffset != HEADER_BYTES + recordCount * RECORD_BYTES || addressTableOffset + 4 > mapped.capacity()) {
+				throw new IOException("Flight record file is corrupt: " + file);
+			}
+
+			mapped.position((int) addressTableOffset);
+			var addresses = new String[mapped.getInt()];
+			for (int i = 0; i < addresses.length; i++) {
+				var bytes = new byte[mapped.getShort()];
+				mapped.get(bytes);
+				addresses[i] = new String(bytes, StandardCharsets.UTF_8);
+			}
+
+			mapped.position(HEADER_BYTES).limit((int) addressTableOffset);
+			return new FlightRecords(mapped.slice(), (int) recordCount, addresses);
+		} catch (RuntimeException e) {  // Reading past the end of a truncated file, or a negative address length
+			throw new IOException("Flight record file is corrupt: " + file, e);
+		}
+	}
+
+	// Number of records (moves) in the file
+	public int size() {
+		return recordCount;
+	}
+
+	public double fromLongitude(int record) {
+		return records.getDouble(offset(record));
+	}
+
+	public double fromLatitude(int record) {
+		return records.getDouble(offset(record) + 8);
+	}
+
+	public double toLongitude(int record) {
+		return records.getDouble(offset(record) + 16);
+	}
+
+	public double toLatitude(int record) {
+		return records.getDouble(offset(record) + 24);
+	}
+
+	public int moveNumber(int record) {
+		return records.getInt(offset(record) + 32);
+	}
+
+	public int bearing(int record) {
+		return records.getShort(offset(record) + 36);
+	}
+
+	// Id of the sensor read at the end of the move (an index into the file's addresses), or NO_SENSOR
+	public int sensorId(int record) {
+		return records.getShort(offset(record) + 38);
+	}
+
+	// The what-3-words address of the sensor read at the end of the move, or "null" (as in the text log) if none was
+	public String w3wAddress(int record) {
+		int id = sensorId(record);
+		return (id == NO_SENSOR) ? "null" : addresses[id];
+	}
+
+	// Writes every record to the sink, in order (e.g. to turn the file back into the text format)
+	public void writeTo(FlightLogSink sink) {
+		for (int i = 0; i < recordCount; i++) {
+			sink.logMove(moveNumber(i),
+					Point.fromLngLat(fromLongitude(i), fromLatitude(i)),
+					bearing(i),
+					Point.fromLngLat(toLongitude(i), toLatitude(i)),
+					w3wAddress(i));
+		}
+	}
+
+	// Converts a flightpath-*.txt file into a flight record file
+	// The text only has 6 decimal places, so converting it back gives exactly the same text
+	// If the conversion fails the partly written flight record file is deleted
+	public static void textToBinary(Path textFile, Path binaryFile) throws IOException {
+		try (var reader = Files.newBufferedReader(textFile, StandardCharsets.UTF_8);
+				var log = BinaryFlightLog.create(binaryFile)) {
+			copyLines(reader, log, textFile);
+			log.finish();
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(binaryFile);
+			throw e;
+		}
+	}
+
+	// Converts a flight record file into the flightpath-*.txt format
+	// If the conversion fails the partly written text file is deleted
+	public static void binaryToText(Path binaryFile, Path textFile) throws IOException {
+		var records = open(binaryFile);
+		try (var log = FileFlightLog.create(textFile)) {
+			records.writeTo(log);
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(textFile);
+			throw e;
+		}
+	}
+
+	public static void main(String[] args) {
+		if (args.length != 3 || !(args[0].equals("to-binary") || args[0].equals("to-text"))) {
+			System.out.println("Usage: FlightRecords to-binary|to-text INPUT OUTPUT");
+			System.exit(1);
+		}
+		try {
+			if (args[0].equals("to-binary")) {
+				textToBinary(Paths.get(args[1]), Paths.get(args[2]));
+			} else {
+				binaryToText(Paths.get(args[1]), Paths.get(args[2]));
+			}
+		} catch (IOException e) {
+			System.out.printf("Fatal error: Failed to convert %s (%s). Exiting...%n", args[1], e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	private int offset(int record) {
+		return record * RECORD_BYTES;
+	}
+
+	// Parses each "move,fromLng,fromLat,bearing,toLng,toLat,w3w" line and writes it to the log
+	private static void copyLines(BufferedReader reader, FlightLogSink log, Path textFile) throws IOException {
+		String line;
+		int lineNumber = 0;
+		while ((line = reader.readLine()) != null) {
+			lineNumber++;
+			var fields = line.split(",", -1);
+			if (fields.length != 7) {
+				throw new IOException(String.format("Line %d of %s isn't a flight log line", lineNumber, textFile));
+			}
+			try {
+				log.logMove(Integer.parseInt(fields[0]),
+						Point.fromLngLat(Double.parseDouble(fields[1]), Double.parseDouble(fields[2])),
+						Integer.parseInt(fields[3]),
+						Point.fromLngLat(Double.parseDouble(fields[4]), Double.parseDouble(fields[5])),
+						fields[6]);
+			} catch (NumberFormatException e) {
+				throw new IOException(String.format("Line %d of %s has an invalid number", lineNumber, textFile), e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,57 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import com.mapbox.geojson.Point;
+
+// Everything that came out of one flight flown by a FlightPlanningService: the route it was given, where the drone
+// actually went, which sensors it read and its flight log (the lines of flightpath-*.txt)
+// Nothing in here is shared with other flights, so results can be handed between threads freely
+public class FlightResult {
+
+	private final PlannedRoute plannedRoute;
+	private final List<Point> pathTaken;
+	private final HashMap<Sensor, Boolean> sensorsVisited;
+	private final String log;
+	private final int movesUsed;
+	private final boolean completed;
+
+	FlightResult(PlannedRoute plannedRoute, List<Point> pathTaken, HashMap<Sensor, Boolean> sensorsVisited, String log, int movesUsed, boolean completed) {
+		this.plannedRoute = plannedRoute;
+		this.pathTaken = pathTaken;
+		this.sensorsVisited = sensorsVisited;
+		this.log = log;
+		this.movesUsed = movesUsed;
+		this.completed = completed;
+	}
+
+	public PlannedRoute getPlannedRoute() {
+		return plannedRoute;
+	}
+
+	public List<Point> getPathTaken() {
+		return Collections.unmodifiableList(pathTaken);
+	}
+
+	// Every sensor of the day (including any left out of the route) and whether the drone read it
+	public HashMap<Sensor, Boolean> getSensorsVisited() {
+		return new HashMap<>(sensorsVisited);
+	}
+
+	// The flight log, in the same format as flightpath-*.txt
+	public String getLog() {
+		return log;
+	}
+
+	public int getMovesUsed() {
+		return movesUsed;
+	}
+
+	// True if the drone visited every sensor in its route and made it back to the start
+	public boolean isCompleted() {
+		return completed;
+	}
+
+}
@@ -0,0 +1,174 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.utils.GeoJsonUtils;
+
+// Writes a GeoJSON FeatureCollection of markers and line strings straight to a channel, one feature at a time
+// The output is byte for byte what FeatureCollection.toJson gives for the same features (compact, coordinates trimmed
+// to 7 decimal places by GeoJsonUtils.trim, strings escaped the way Gson escapes them), but without building a Feature,
+// a property map and the whole JSON String in memory first. Only the reused text and byte buffers are kept around
+class GeoJsonStreamWriter implements Closeable {
+
+	// Text is encoded and written out once this much has built up
+	private static final int FLUSH_THRESHOLD = 8 * 1024;
+	private static final int BUFFER_SIZE = 32 * 1024;
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private final WritableByteChannel channel;
+	private final StringBuilder text = new StringBuilder(FLUSH_THRESHOLD + 1024);
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+
+	private boolean firstFeature = true;
+
+	// Starts a FeatureCollection on the channel (which is closed along with the writer)
+	GeoJsonStreamWriter(WritableByteChannel channel) {
+		this.channel = channel;
+		text.append("{\"type\":\"FeatureCollection\",\"features\":[");
+	}
+
+	// Creates (or empties, if it already exists) the file and returns a writer that writes to it
+	static GeoJsonStreamWriter create(Path file) throws IOException {
+		return new GeoJsonStreamWriter(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+	}
+
+	// Writes a Point feature with the provided string properties, in order (markerSymbol is left out if it's null)
+	void writeMarker(Point point, String location, String colour, String markerSymbol) throws IOException {
+		beginFeature();
+		text.append("{\"type\":\"Point\",\"coordinates\":");
+		appendCoordinates(point);
+		text.append("},\"properties\":{\"location\":");
+		appendString(location);
+		text.append(",\"rgb-string\":");
+		appendString(colour);
+		text.append(",\"marker-color\":");
+		appendString(colour);
+		if (markerSymbol != null) {
+			text.append(",\"marker-symbol\":");
+			appendString(markerSymbol);
+		}
+		text.append("}}");
+		flushIfFull();
+	}
+
+	// Writes a LineString feature through the points, with no properties
+	void writeLineString(Iterable<Point> points) throws IOException {
+		beginFeature();
+		text.append("{\"type\":\"LineString\",\"coordinates\":[");
+		boolean first = true;
+		for (var point : points) {
+			if (!first) {
+				text.append(',');
+			}
+			first = false;
+			appendCoordinates(point);
+			flushIfFull();
+		}
+		text.append("]},\"properties\":{}}");
+		flushIfFull();
+	}
+
+	// Finishes the FeatureCollection, writes out everything left and closes the channel
+	@Override
+	public void close() throws IOException {
+		try {
+			text.append("]}");
+			writeText();
+		} finally {
+			channel.close();
+		}
+	}
+
+	private void beginFeature() {
+		if (!firstFeature) {
+			text.append(',');
+		}
+		firstFeature = false;
+		text.append("{\"type\":\"Feature\",\"geometry\":");
+	}
+
+	private void appendCoordinates(Point point) {
+		text.append('[').append(GeoJsonUtils.trim(point.longitude())).append(',').append(GeoJsonUtils.trim(point.latitude())).append(']');
+	}
+
+	// Appends value as a JSON string, escaped exactly as Gson (with its default HTML-safe escaping) would
+	private void appendString(String value) {
+		text.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"': text.append("\\\""); break;
+				case '\\': text.append("\\\\"); break;
+				case '\t': text.append("\\t"); break;
+				case '\b': text.append("\\b"); break;
+				case '\n': text.append("\\n"); break;
+				case '\r': text.append("\\r"); break;
+				case '\f': text.append("\\f"); break;
+				case '<': case '>': case '&': case '=': case '\'': case '\u2028': case '\u2029':  // Line and paragraph separators
+					appendUnicodeEscape(c);
+					break;
+				default:
+					if (c < 0x20) {
+						appendUnicodeEscape(c);
+					} else {
+						text.append(c);
+					}
+			}
+		}
+		text.append('"');
+	}
+
+	private void appendUnicodeEscape(char c) {
+		text.append("\\u")
+				.append(HEX_DIGITS[(c >> 12) & 0xF])
+				.append(HEX_DIGITS[(c >> 8) & 0xF])
+				.append(HEX_DIGITS[(c >> 4) & 0xF])
+				.append(HEX_DIGITS[c & 0xF]);
+	}
+
+	private void flushIfFull() throws IOException {
+		if (text.length() >= FLUSH_THRESHOLD) {
+			writeText();
+		}
+	}
+
+	// Encodes the pending text into the buffer, writing the buffer out whenever it fills up (and at the end)
+	private void writeText() throws IOException {
+		var chars = CharBuffer.wrap(text);
+		encoder.reset();
+		while (true) {
+			CoderResult result = encoder.encode(chars, buffer, true);
+			if (result.isError()) {
+				result.throwException();
+			}
+			if (!result.isOverflow()) {
+				break;
+			}
+			writeBuffer();
+		}
+		writeBuffer();
+		text.setLength(0);
+	}
+
+	private void writeBuffer() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+}
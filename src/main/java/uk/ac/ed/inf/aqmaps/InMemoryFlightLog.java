@@ -0,0 +1,29 @@
+package uk.ac.ed.inf.aqmaps;
+
+import com.mapbox.geojson.Point;
+
+// Keeps the whole flight log in memory (for Pilot.getLog, and for trial flights that never write a file)
+class InMemoryFlightLog implements FlightLogSink {
+
+	private final StringBuilder log = new StringBuilder();
+
+	@Override
+	public void logMove(int moveNumber, Point previousPosition, int bearing, Point newPosition, String w3wAddress) {
+		FlightLogFormat.appendMove(log, moveNumber, previousPosition, bearing, newPosition, w3wAddress);
+	}
+
+	@Override
+	public void flush() {
+	}
+
+	@Override
+	public void close() {
+	}
+
+	// Returns every line logged so far, in order
+	@Override
+	public String toString() {
+		return log.toString();
+	}
+
+}
@@ -0,0 +1,167 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
+
+import com.mapbox.geojson.BoundingBox;
+
+// Precomputed table of moves that are definitely legal, used by NoFlyZoneChecker to skip the geometry for most moves
+// The confinement area is split into small square cells, and each cell gets one long where bit (bearing / 10) is set
+// if a move with that bearing is legal from *every* point in the cell (so it can never disagree with the exact check)
+// Moves with their bit unset (usually ones that pass close to a no-fly-zone or the edge of the area) still need the exact check
+// Building the table takes a moment, so it is saved to a file (one per set of no-fly-zones) and memory mapped on later runs
+class LegalMoveBitmap {
+
+	// Written at the start of each file so we never try to map something that isn't one of our bitmap files
+	private static final int MAGIC_NUMBER = 0x41514D4C;  // "AQML"
+	// Bump this whenever the layout (or meaning) of the file changes, old files are then just rebuilt
+	private static final int FORMAT_VERSION = 1;
+	private static final int HEADER_BYTES = 24;
+
+	// Small enough that a cell is well within one move of most of its neighbours' legal moves
+	private static final double CELL_SIZE = Drone.MOVE_DISTANCE / 6;
+	// Moves that come closer than this to an edge or the confinement area aren't counted as definitely legal
+	// Far bigger than any rounding error in the exact check, far smaller than anything that matters for the flight
+	private static final double MARGIN = 1e-9;
+
+	private static final int BEARINGS = 36;
+
+	private final double west;
+	private final double south;
+	private final int columns;
+	private final int rows;
+	// cells.get(row*columns + column) holds the legal bearings for that cell
+	private final LongBuffer cells;
+
+	private LegalMoveBitmap(double west, double south, int columns, int rows, LongBuffer cells) {
+		this.west = west;
+		this.south = south;
+		this.columns = columns;
+		this.rows = rows;
+		this.cells = cells;
+	}
+
+	// Returns the bitmap for the checker's no-fly-zones, mapping it from directory if it was built before
+	// and building (and saving) it otherwise. If it can't be saved, the bitmap is just kept in memory
+	public static LegalMoveBitmap loadOrBuild(NoFlyZoneChecker checker, BoundingBox confinementArea, Path directory) {
+		var file = directory.resolve("legal-moves-" + checker.geometryKey() + ".bin");
+		if (Files.exists(file)) {
+			try {
+				return map(file, confinementArea);
+			} catch (IOException e) {
+				// Fall through and rebuild it
+			}
+		}
+		var bitmap = build(checker, confinementArea);
+		try {
+			bitmap.save(directory, file);
+			return map(file, confinementArea);
+		} catch (IOException e) {
+			// The bitmap is only an optimisation, so failing to write it isn't fatal
+			System.out.printf("Warning: Could not write legal move bitmap %s (%s)%n", file, e.getMessage());
+			return bitmap;
+		}
+	}
+
+	// Builds the bitmap in memory (each row of cells is independent, so the rows are built in parallel)
+	public static LegalMoveBitmap build(NoFlyZoneChecker checker, BoundingBox confinementArea) {
+		double west = confinementArea.west();
+		double south = confinementArea.south();
+		int columns = (int) Math.ceil((confinementArea.east() - west) / CELL_SIZE);
+		int rows = (int) Math.ceil((confinementArea.north() - south) / CELL_SIZE);
+
+		var moveLongs = new double[BEARINGS];
+		var moveLats = new double[BEARINGS];
+		for (int i = 0; i < BEARINGS; i++) {
+			// Exactly the offsets the drone moves by (see PointUtils)
+			moveLongs[i] = PointUtils.moveDestinationLongitude(0, 10*i);
+			moveLats[i] = PointUtils.moveDestinationLatitude(0, 10*i);
+		}
+
+		var cells = new long[columns*rows];
+		IntStream.range(0, rows).parallel().forEach(row -> {
+			// Each cell is grown by MARGIN so points that get rounded into a neighbouring cell are still covered
+			double minLat = south + row*CELL_SIZE - MARGIN;
+			double maxLat = south + (row + 1)*CELL_SIZE + MARGIN;
+			for (int column = 0; column < columns; column++) {
+				double minLong = west + column*CELL_SIZE - MARGIN;
+				double maxLong = west + (column + 1)*CELL_SIZE + MARGIN;
+				long legalBearings = 0;
+				for (int i = 0; i < BEARINGS; i++) {
+					if (checker.sweptBoxIsClear(minLong, minLat, maxLong, maxLat, moveLongs[i], moveLats[i], MARGIN)) {
+						legalBearings |= 1L << i;
+					}
+				}
+				cells[row*columns + column] = legalBearings;
+			}
+		});
+		return new LegalMoveBitmap(west, south, columns, rows, LongBuffer.wrap(cells));
+	}
+
+	// Returns true if the move is definitely legal, false if it might not be (and needs checking properly)
+	public boolean definitelyLegal(double longitude, double latitude, int bearing) {
+		if (bearing < 0 || bearing >= 360 || bearing % 10 != 0) {
+			return false;  // Not one of the drone's bearings
+		}
+		double column = Math.floor((longitude - west) / CELL_SIZE);
+		double row = Math.floor((latitude - south) / CELL_SIZE);
+		if (!(column >= 0 && column < columns && row >= 0 && row < rows)) {  // Also false for NaN
+			return false;
+		}
+		return (cells.get((int) row*columns + (int) column) & (1L << (bearing / 10))) != 0;
+	}
+
+	// Returns the fraction of (cell, bearing) pairs that are known to be legal
+	public double coverage() {
+		long legal = 0;
+		for (int i = 0; i < columns*rows; i++) {
+			legal += Long.bitCount(cells.get(i));
+		}
+		return (double) legal / ((long) columns*rows*BEARINGS);
+	}
+
+	private void save(Path directory, Path file) throws IOException {
+		var buffer = ByteBuffer.allocate(HEADER_BYTES + 8*columns*rows);
+		buffer.putInt(MAGIC_NUMBER).putInt(FORMAT_VERSION).putInt(columns).putInt(rows).putDouble(CELL_SIZE);
+		for (int i = 0; i < columns*rows; i++) {
+			buffer.putLong(cells.get(i));
+		}
+		buffer.flip();
+
+		// Written to a temporary file and moved into place, so no other run can map a half-written file
+		Files.createDirectories(directory);
+		var temporaryFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+		try (var channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+		Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	// Memory maps a saved bitmap, throwing IOException if it isn't a bitmap file this version can use
+	private static LegalMoveBitmap map(Path file, BoundingBox confinementArea) throws IOException {
+		try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			// The mapping stays valid after the channel is closed
+			var mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (mapped.remaining() < HEADER_BYTES || mapped.getInt() != MAGIC_NUMBER || mapped.getInt() != FORMAT_VERSION) {
+				throw new IOException("Not a legal move bitmap this version can read: " + file);
+			}
+			int columns = mapped.getInt();
+			int rows = mapped.getInt();
+			double cellSize = mapped.getDouble();
+			if (cellSize != CELL_SIZE || columns <= 0 || rows <= 0 || mapped.remaining() != 8L*columns*rows) {
+				throw new IOException("Legal move bitmap has the wrong size: " + file);
+			}
+			return new LegalMoveBitmap(confinementArea.west(), confinementArea.south(), columns, rows, mapped.slice().asLongBuffer());
+		}
+	}
+
+}
@@ -0,0 +1,123 @@
+package uk.ac.ed.inf.aqmaps;
+
+// Lin-Kernighan style local search built out of chains of 2-opt moves
+// From a node t1 with tour neighbour t2, it breaks t1-t2, joins t2 to a near neighbour t3, breaks t3-t4 and closes the tour with t4-t1.
+// Instead of stopping there (2-opt), it carries on from t4 as long as the chain could still pay off, then keeps the best prefix of the chain.
+// A chain of two 2-opt moves covers the sequential 3-opt moves, longer chains give the deeper LK moves.
+class LinKernighanOptimiser extends NeighbourListOptimiser {
+
+	private final String name;
+	private final int maxDepth;                // Longest chain of 2-opt moves to try
+	private final OrOptOptimiser orOpt;        // Also tries Or-opt moves from a node when no chain helps (null to skip)
+
+	private LinKernighanOptimiser(String name, int maxDepth, boolean withOrOpt) {
+		this.name = name;
+		this.maxDepth = maxDepth;
+		this.orOpt = withOrOpt ? new OrOptOptimiser() : null;
+	}
+
+	// Sequential 3-opt (chains of up to two 2-opt moves)
+	public static LinKernighanOptimiser threeOpt() {
+		return new LinKernighanOptimiser("3-opt", 2, false);
+	}
+
+	// Chains of up to six 2-opt moves, plus Or-opt moves
+	public static LinKernighanOptimiser linKernighan() {
+		return new LinKernighanOptimiser("lk", 6, true);
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	protected boolean improveFrom(int t1, CyclicTour tour, NeighbourLists neighbours, DistanceMatrix distances, ActiveNodes activeNodes) {
+		if (improveChain(t1, tour.next(t1), tour, neighbours, distances, activeNodes)
+				|| improveChain(t1, tour.prev(t1), tour, neighbours, distances, activeNodes)) {
+			return true;
+		}
+		return orOpt != null && orOpt.improveFrom(t1, tour, neighbours, distances, activeNodes);
+	}
+
+	// Builds a chain of 2-opt moves starting by breaking the edge t1-t2, keeping the prefix of the chain that shortens the tour the most
+	// Returns true if the tour was shortened
+	private boolean improveChain(int t1, int t2, CyclicTour tour, NeighbourLists neighbours, DistanceMatrix distances, ActiveNodes activeNodes) {
+		var flips = new int[maxDepth * 4];        // The (a, b, c, d) of every flip made, so they can be undone
+		var addedEdges = new int[maxDepth * 2];   // Edges the chain added, which it mustn't break again
+
+		// Length of the edges broken so far minus the length of the edges added so far (not counting the closing edge t1-t2)
+		double gain = distances.between(t1, t2);
+		double bestImprovement = EPSILON;
+		int bestDepth = 0;
+		int depth = 0;
+
+		while (depth < maxDepth) {
+			boolean forwards = tour.next(t1) == t2;
+
+			// Pick the t3 (near t2) that leaves the most gain to carry on with
+			int bestT3 = -1;
+			int bestT4 = -1;
+			double bestGain = -Double.MAX_VALUE;
+			for (int i = 0; i < neighbours.count(); i++) {
+				int t3 = neighbours.get(t2, i);
+				double gainAfterJoin = gain - distances.between(t2, t3);
+				if (gainAfterJoin <= EPSILON) {
+					break;  // Neighbours are sorted, so no later t3 can keep the gain positive
+				}
+				int t4 = forwards ? tour.prev(t3) : tour.next(t3);
+				if (t3 == t1 || t4 == t2 || isAdded(addedEdges, depth, t3, t4)) {
+					continue;
+				}
+				double gainAfterBreak = gainAfterJoin + distances.between(t3, t4);
+				if (gainAfterBreak > bestGain) {
+					bestGain = gainAfterBreak;
+					bestT3 = t3;
+					bestT4 = t4;
+				}
+			}
+			if (bestT3 == -1) {
+				break;
+			}
+
+			// Breaks t1-t2 and t4-t3, joins t2-t3 and closes the tour with t1-t4
+			tour.flip(t1, t2, bestT4, bestT3);
+			flips[depth*4] = t1;
+			flips[depth*4 + 1] = t2;
+			flips[depth*4 + 2] = bestT4;
+			flips[depth*4 + 3] = bestT3;
+			addedEdges[depth*2] = t2;
+			addedEdges[depth*2 + 1] = bestT3;
+			depth += 1;
+
+			gain = bestGain;
+			double improvement = gain - distances.between(bestT4, t1);  // How much shorter the tour actually is right now
+			if (improvement > bestImprovement) {
+				bestImprovement = improvement;
+				bestDepth = depth;
+			}
+			t2 = bestT4;  // The closing edge t1-t4 is the next one to break
+		}
+
+		// Undo the flips past the best point in the chain (a flip of a-b, c-d is undone by flipping a-c, b-d)
+		for (int i = depth - 1; i >= bestDepth; i--) {
+			tour.flip(flips[i*4], flips[i*4 + 2], flips[i*4 + 1], flips[i*4 + 3]);
+		}
+		for (int i = 0; i < bestDepth * 4; i++) {
+			activeNodes.add(flips[i]);
+		}
+		return bestDepth > 0;
+	}
+
+	private static boolean isAdded(int[] addedEdges, int count, int a, int b) {
+		for (int i = 0; i < count; i++) {
+			int x = addedEdges[i*2];
+			int y = addedEdges[i*2 + 1];
+			if ((x == a && y == b) || (x == b && y == a)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,206 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.mapbox.geojson.Point;
+
+// Re-optimises the rest of the route from wherever the drone is after each reading, starting from the current order
+// The rest of the route is a path (not a tour) from the drone's position through the remaining sensors to the end point,
+// with both ends fixed. The current order is usually close to the best one already, so a few passes of 2-opt and or-opt
+// moves on it are enough to fix it up, far quicker than planning from scratch
+// Each call is given a time limit, once it's up the best order found so far is used (the search can stop at any point)
+class LocalSearchReplanner implements ReplanningHook {
+
+	private static final long DEFAULT_TIME_LIMIT_NANOS = 5_000_000;  // 5ms, the drone's flight isn't held up noticeably
+
+	// Longest chain of sensors or-opt moves at once
+	private static final int MAX_SEGMENT_LENGTH = 3;
+
+	private static final double EPSILON = 1e-12;
+
+	private static final Metrics.Distribution REPLANNING_SECONDS = Metrics.timer("aqmaps_replanner_seconds", "Time to re-optimise the rest of the route after a reading");
+	private static final Metrics.Counter REORDERS = Metrics.counter("aqmaps_replanner_reorders_total", "Times re-optimising changed the order of the remaining sensors");
+
+	private final long timeLimitNanos;
+
+	public LocalSearchReplanner() {
+		this(DEFAULT_TIME_LIMIT_NANOS);
+	}
+
+	public LocalSearchReplanner(long timeLimitNanos) {
+		this.timeLimitNanos = timeLimitNanos;
+	}
+
+	@Override
+	public List<Sensor> replan(Point position, Point end, List<Sensor> remaining) {
+		if (remaining.size() < 2) {
+			return remaining;  // Nothing to reorder
+		}
+		long startTime = Metrics.start();
+		long deadline = System.nanoTime() + timeLimitNanos;
+
+		// Node 0 is the drone's position, node i is remaining sensor i-1 and the last node is the end point
+		int nodes = remaining.size() + 2;
+		var longitudes = new double[nodes];
+		var latitudes = new double[nodes];
+		longitudes[0] = position.longitude();
+		latitudes[0] = position.latitude();
+		for (int i = 0; i < remaining.size(); i++) {
+			longitudes[i + 1] = remaining.get(i).getPoint().longitude();
+			latitudes[i + 1] = remaining.get(i).getPoint().latitude();
+		}
+		longitudes[nodes - 1] = end.longitude();
+		latitudes[nodes - 1] = end.latitude();
+
+		// The warm start: the order the pilot was going to fly anyway
+		var path = new int[nodes];
+		for (int i = 0; i < nodes; i++) {
+			path[i] = i;
+		}
+
+		var search = new Search(path, longitudes, latitudes, deadline);
+		boolean improved = false;
+		while (!search.outOfTime() && (search.twoOptPass() | search.orOptPass())) {
+			improved = true;
+		}
+		REPLANNING_SECONDS.stop(startTime);
+		if (!improved) {
+			return remaining;
+		}
+
+		REORDERS.increment();
+		var reordered = new ArrayList<Sensor>(remaining.size());
+		for (int i = 1; i < nodes - 1; i++) {
+			reordered.add(remaining.get(path[i] - 1));
+		}
+		return reordered;
+	}
+
+	// The state of one re-optimisation: the path being improved (path[0] and path[last] never move) and the deadline
+	private static class Search {
+
+		private final int[] path;
+		private final double[] longitudes;
+		private final double[] latitudes;
+		private final long deadline;
+		private final int last;
+
+		Search(int[] path, double[] longitudes, double[] latitudes, long deadline) {
+			this.path = path;
+			this.longitudes = longitudes;
+			this.latitudes = latitudes;
+			this.deadline = deadline;
+			this.last = path.length - 1;
+		}
+
+		boolean outOfTime() {
+			return System.nanoTime() > deadline;
+		}
+
+		// Reverses any section of the path that makes it shorter, returning true if anything was reversed
+		boolean twoOptPass() {
+			boolean improved = false;
+			for (int i = 1; i < last - 1 && !outOfTime(); i++) {
+				for (int j = i + 1; j < last; j++) {
+					double gain = distance(path[i - 1], path[i]) + distance(path[j], path[j + 1])
+							- distance(path[i - 1], path[j]) - distance(path[i], path[j + 1]);
+					if (gain > EPSILON) {
+						reverse(i, j);
+						improved = true;
+					}
+				}
+			}
+			return improved;
+		}
+
+		// Moves chains of up to MAX_SEGMENT_LENGTH sensors (possibly reversed) to wherever makes the path shortest,
+		// returning true if anything was moved
+		boolean orOptPass() {
+			boolean improved = false;
+			for (int length = 1; length <= MAX_SEGMENT_LENGTH; length++) {
+				for (int i = 1; i + length - 1 < last && !outOfTime(); i++) {
+					if (moveSegment(i, i + length - 1)) {
+						improved = true;
+					}
+				}
+			}
+			return improved;
+		}
+
+		// Tries moving path[first..lastInSegment] between every other pair of neighbouring nodes, making the best move if it saves anything
+		private boolean moveSegment(int first, int lastInSegment) {
+			int s1 = path[first];
+			int s2 = path[lastInSegment];
+			int p = path[first - 1];
+			int q = path[lastInSegment + 1];
+			double removalGain = distance(p, s1) + distance(s2, q) - distance(p, q);
+			if (removalGain <= EPSILON) {
+				return false;
+			}
+
+			double bestGain = EPSILON;
+			int bestAfter = -1;
+			boolean bestReversed = false;
+			for (int after = 0; after < last; after++) {
+				if (after >= first - 1 && after <= lastInSegment) {
+					continue;  // Inside the segment, or right where it already is
+				}
+				int c = path[after];
+				int d = path[after + 1];
+				double cd = distance(c, d);
+				double forwardsGain = removalGain - (distance(c, s1) + distance(s2, d) - cd);  // c s1..s2 d
+				double reversedGain = removalGain - (distance(c, s2) + distance(s1, d) - cd);  // c s2..s1 d
+				if (forwardsGain > bestGain) {
+					bestGain = forwardsGain;
+					bestAfter = after;
+					bestReversed = false;
+				}
+				if (reversedGain > bestGain) {
+					bestGain = reversedGain;
+					bestAfter = after;
+					bestReversed = true;
+				}
+			}
+			if (bestAfter == -1) {
+				return false;
+			}
+			move(first, lastInSegment, bestAfter, bestReversed);
+			return true;
+		}
+
+		// Takes path[first..lastInSegment] out and puts it back straight after path[after] (which is outside the segment)
+		private void move(int first, int lastInSegment, int after, boolean reversed) {
+			int length = lastInSegment - first + 1;
+			var segment = new int[length];
+			for (int k = 0; k < length; k++) {
+				segment[k] = path[reversed ? lastInSegment - k : first + k];
+			}
+			int insertAt;
+			if (after < first) {
+				// Shift path[after+1..first-1] along to make room
+				System.arraycopy(path, after + 1, path, after + 1 + length, first - after - 1);
+				insertAt = after + 1;
+			} else {
+				// Shift path[lastInSegment+1..after] back into the gap
+				System.arraycopy(path, lastInSegment + 1, path, first, after - lastInSegment);
+				insertAt = after - length + 1;
+			}
+			System.arraycopy(segment, 0, path, insertAt, length);
+		}
+
+		private void reverse(int i, int j) {
+			while (i < j) {
+				int swap = path[i];
+				path[i++] = path[j];
+				path[j--] = swap;
+			}
+		}
+
+		private double distance(int a, int b) {
+			return Math.hypot(longitudes[a] - longitudes[b], latitudes[a] - latitudes[b]);
+		}
+
+	}
+
+}
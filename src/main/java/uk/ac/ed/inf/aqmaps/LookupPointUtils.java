@@ -0,0 +1,102 @@
+package uk.ac.ed.inf.aqmaps;
+
+import com.mapbox.geojson.Point;
+
+// Faster versions of the PointUtils move and bearing methods that always give exactly the same answers
+// The drone only ever flies on one of 36 bearings, so the move offsets are worked out once into a table,
+// and the bearing towards a point is found by checking which side of each 5, 15, 25... degree line it is on instead of using atan2
+public class LookupPointUtils {
+
+	private static final int BEARINGS = 36;
+
+	// MOVE_LONGITUDES[b / 10] and MOVE_LATITUDES[b / 10] are how far a move with bearing b goes
+	// Worked out with the very same expressions as PointUtils, so adding them gives bit-for-bit the same destinations
+	private static final double[] MOVE_LONGITUDES = new double[BEARINGS];
+	private static final double[] MOVE_LATITUDES = new double[BEARINGS];
+
+	// Directions of the lines (at 5, 15, ..., 355 degrees) where bearingFromTo switches from one bearing to the next
+	private static final double[] BOUNDARY_COS = new double[BEARINGS];
+	private static final double[] BOUNDARY_SIN = new double[BEARINGS];
+
+	// Points closer than this (relative to their distance) to one of the boundary lines are left to PointUtils,
+	// since rounding in atan2 could put them on either side. Far bigger than that rounding, far too small to happen often
+	private static final double BOUNDARY_TOLERANCE = 1e-12;
+
+	static {
+		for (int i = 0; i < BEARINGS; i++) {
+			MOVE_LONGITUDES[i] = Drone.MOVE_DISTANCE * Math.cos(Math.toRadians(10 * i));
+			MOVE_LATITUDES[i] = Drone.MOVE_DISTANCE * Math.sin(Math.toRadians(10 * i));
+			BOUNDARY_COS[i] = Math.cos(Math.toRadians(10 * i + 5));
+			BOUNDARY_SIN[i] = Math.sin(Math.toRadians(10 * i + 5));
+		}
+	}
+
+	// Same as PointUtils.moveDestination
+	public static Point moveDestination(Point point, int bearing) {
+		return Point.fromLngLat(
+				moveDestinationLongitude(point.longitude(), bearing),
+				moveDestinationLatitude(point.latitude(), bearing));
+	}
+
+	// Same as PointUtils.moveDestinationLongitude
+	public static double moveDestinationLongitude(double longitude, int bearing) {
+		if (!isDroneBearing(bearing)) {
+			return PointUtils.moveDestinationLongitude(longitude, bearing);
+		}
+		return longitude + MOVE_LONGITUDES[bearing / 10];
+	}
+
+	// Same as PointUtils.moveDestinationLatitude
+	public static double moveDestinationLatitude(double latitude, int bearing) {
+		if (!isDroneBearing(bearing)) {
+			return PointUtils.moveDestinationLatitude(latitude, bearing);
+		}
+		return latitude + MOVE_LATITUDES[bearing / 10];
+	}
+
+	// Same as PointUtils.bearingFromTo
+	public static int bearingFromTo(Point point, Waypoint waypoint) {
+		var b = waypoint.getPoint();
+		int bearing = bearingOf(b.longitude() - point.longitude(), b.latitude() - point.latitude());
+		return (bearing != -1) ? bearing : PointUtils.bearingFromTo(point, waypoint);
+	}
+
+	// Returns the bearing (rounded to the nearest 10) of the direction (longDist, latDist),
+	// or -1 if it's too close to call without atan2 (right on a boundary, zero or not a number)
+	private static int bearingOf(double longDist, double latDist) {
+		// First the quadrant, [0, 90), [90, 180), [180, 270) or [270, 360), the same way atan2 treats the axes
+		int quadrant;
+		if (longDist > 0 && latDist >= 0) {
+			quadrant = 0;
+		} else if (longDist <= 0 && latDist > 0) {
+			quadrant = 1;
+		} else if (longDist < 0 && latDist <= 0) {
+			quadrant = 2;
+		} else if (longDist >= 0 && latDist < 0) {
+			quadrant = 3;
+		} else {
+			return -1;  // (0, 0) or NaN
+		}
+
+		// Then count how many of the quadrant's 9 boundary lines the direction is anticlockwise of
+		// Within a quadrant every boundary is less than 90 degrees away, so the sign of the cross product can't wrap around
+		double tolerance = BOUNDARY_TOLERANCE * (Math.abs(longDist) + Math.abs(latDist));
+		int boundariesPassed = 0;
+		for (int i = 9 * quadrant; i < 9 * quadrant + 9; i++) {
+			double cross = BOUNDARY_COS[i] * latDist - BOUNDARY_SIN[i] * longDist;
+			if (cross > tolerance) {
+				boundariesPassed++;
+			} else if (!(cross < -tolerance)) {
+				return -1;  // Too close to the line
+			} else {
+				break;  // The boundaries go anticlockwise, so it can't be past any of the rest either
+			}
+		}
+		return PointUtils.mod360(90 * quadrant + 10 * boundariesPassed);
+	}
+
+	private static boolean isDroneBearing(int bearing) {
+		return bearing >= 0 && bearing < 360 && bearing % 10 == 0;
+	}
+
+}
@@ -0,0 +1,217 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+
+// A tiny registry of counters and timers, for finding out where the time in a run goes
+// Collection is switched on with -Daqmaps.metrics=true (or App's --metrics option). When it's off ENABLED is a constant false,
+// so the JIT compiles every record/increment call down to nothing and the instrumentation costs nothing
+// Everything is safe to update from many threads at once (LongAdder keeps contended updates cheap)
+final class Metrics {
+
+	// A compile-time constant, so App can read it without loading this class (and fixing ENABLED) too early
+	static final String ENABLED_PROPERTY = "aqmaps.metrics";
+
+	static final boolean ENABLED = Boolean.getBoolean(ENABLED_PROPERTY);
+
+	// Every metric by its full name (including its label, if it has one), sorted so related metrics print together
+	private static final Map<String, Metric> REGISTRY = new ConcurrentSkipListMap<>();
+
+	private Metrics() {
+	}
+
+	// Returns the counter with the provided name, creating it if needed
+	static Counter counter(String name, String help) {
+		return (Counter) REGISTRY.computeIfAbsent(name, key -> new Counter(name, "", help));
+	}
+
+	// Same as above, but for one value of a label (e.g. aqmaps_stage_seconds{stage="plan"})
+	static Counter counter(String name, String label, String labelValue, String help) {
+		var labels = labels(label, labelValue);
+		return (Counter) REGISTRY.computeIfAbsent(name + labels, key -> new Counter(name, labels, help));
+	}
+
+	// Returns the timer with the provided name (by convention ending in _seconds), creating it if needed
+	static Distribution timer(String name, String help) {
+		return (Distribution) REGISTRY.computeIfAbsent(name, key -> new Distribution(name, "", help, true));
+	}
+
+	static Distribution timer(String name, String label, String labelValue, String help) {
+		var labels = labels(label, labelValue);
+		return (Distribution) REGISTRY.computeIfAbsent(name + labels, key -> new Distribution(name, labels, help, true));
+	}
+
+	// Returns a distribution of plain values (e.g. path lengths), creating it if needed
+	static Distribution distribution(String name, String help) {
+		return (Distribution) REGISTRY.computeIfAbsent(name, key -> new Distribution(name, "", help, false));
+	}
+
+	// Returns a start time to pass to Distribution.stop (0 when metrics are off, which saves reading the clock)
+	static long start() {
+		return ENABLED ? System.nanoTime() : 0;
+	}
+
+	// Returns every metric as a JSON object (timers are in seconds)
+	static String toJson() {
+		var json = new JsonObject();
+		for (var metric : REGISTRY.values()) {
+			metric.addTo(json);
+		}
+		return new GsonBuilder().setPrettyPrinting().create().toJson(json) + System.lineSeparator();
+	}
+
+	// Returns every metric in the Prometheus text exposition format
+	// Timers are summaries in seconds, with their maximums as a separate gauge (name_max) since summaries can't hold one
+	static String toPrometheus() {
+		// Group each metric's labels together, they have to share one HELP and TYPE
+		var families = new LinkedHashMap<String, List<Metric>>();
+		for (var metric : REGISTRY.values()) {
+			families.computeIfAbsent(metric.name, name -> new ArrayList<>()).add(metric);
+		}
+
+		var text = new StringBuilder();
+		for (var family : families.values()) {
+			var first = family.get(0);
+			text.append(String.format("# HELP %s %s%n# TYPE %s %s%n", first.name, first.help, first.name, first.type()));
+			for (var metric : family) {
+				metric.addTo(text);
+			}
+			if (first instanceof Distribution) {
+				text.append(String.format("# HELP %s_max Largest of: %s%n# TYPE %s_max gauge%n", first.name, first.help, first.name));
+				for (var metric : family) {
+					((Distribution) metric).addMaxTo(text);
+				}
+			}
+		}
+		return text.toString();
+	}
+
+	private static String labels(String label, String labelValue) {
+		return String.format("{%s=\"%s\"}", label, labelValue);
+	}
+
+	abstract static class Metric {
+
+		final String name;
+		final String labels;
+		final String help;
+
+		Metric(String name, String labels, String help) {
+			this.name = name;
+			this.labels = labels;
+			this.help = help;
+		}
+
+		abstract String type();
+
+		abstract void addTo(JsonObject json);
+
+		abstract void addTo(StringBuilder prometheusText);
+	}
+
+	static final class Counter extends Metric {
+
+		private final LongAdder count = new LongAdder();
+
+		private Counter(String name, String labels, String help) {
+			super(name, labels, help);
+		}
+
+		void increment() {
+			if (ENABLED) {
+				count.increment();
+			}
+		}
+
+		void add(long amount) {
+			if (ENABLED) {
+				count.add(amount);
+			}
+		}
+
+		long get() {
+			return count.sum();
+		}
+
+		@Override
+		String type() {
+			return "counter";
+		}
+
+		@Override
+		void addTo(JsonObject json) {
+			json.addProperty(name + labels, count.sum());
+		}
+
+		@Override
+		void addTo(StringBuilder prometheusText) {
+			prometheusText.append(String.format("%s%s %d%n", name, labels, count.sum()));
+		}
+	}
+
+	// Count, sum and maximum of the recorded values (nanoseconds for timers, reported as seconds)
+	static final class Distribution extends Metric {
+
+		private final boolean nanoseconds;
+		private final LongAdder count = new LongAdder();
+		private final LongAdder sum = new LongAdder();
+		private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+		private Distribution(String name, String labels, String help, boolean nanoseconds) {
+			super(name, labels, help);
+			this.nanoseconds = nanoseconds;
+		}
+
+		void record(long value) {
+			if (ENABLED) {
+				count.increment();
+				sum.add(value);
+				max.accumulate(value);
+			}
+		}
+
+		// Records the time since startTime (from Metrics.start)
+		void stop(long startTime) {
+			if (ENABLED) {
+				record(System.nanoTime() - startTime);
+			}
+		}
+
+		private double scaled(long value) {
+			return nanoseconds ? value / 1e9 : value;
+		}
+
+		@Override
+		String type() {
+			return "summary";
+		}
+
+		@Override
+		void addTo(JsonObject json) {
+			var values = new JsonObject();
+			values.addProperty("count", count.sum());
+			values.addProperty("sum", scaled(sum.sum()));
+			values.addProperty("max", scaled(max.get()));
+			json.add(name + labels, values);
+		}
+
+		@Override
+		void addTo(StringBuilder prometheusText) {
+			prometheusText.append(String.format("%s_count%s %d%n", name, labels, count.sum()));
+			prometheusText.append(String.format("%s_sum%s %s%n", name, labels, scaled(sum.sum())));
+		}
+
+		void addMaxTo(StringBuilder prometheusText) {
+			prometheusText.append(String.format("%s_max%s %s%n", name, labels, scaled(max.get())));
+		}
+	}
+
+}
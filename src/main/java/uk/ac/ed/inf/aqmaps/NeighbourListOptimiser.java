@@ -0,0 +1,83 @@
+package uk.ac.ed.inf.aqmaps;
+
+// Base for local searches that only look at moves near each node (using NeighbourLists)
+// Nodes are kept in a queue of "active" nodes, which is the usual don't-look bits trick:
+// once no improving move can be found from a node it is dropped, and it only comes back if one of its tour edges changes
+abstract class NeighbourListOptimiser implements TourOptimiser {
+
+	// Moves have to save at least this much to count, so floating point noise can't make us loop forever
+	protected static final double EPSILON = 1e-12;
+
+	private static final int NEIGHBOURS = 8;
+
+	// Below this size there are too few edges for the moves to make sense (and 2-opt is already instant)
+	private static final int MIN_NODES = 5;
+
+	private static final Metrics.Counter NODE_VISITS = Metrics.counter("aqmaps_local_search_node_visits_total", "Active nodes the neighbour list optimisers tried to improve from");
+
+	@Override
+	public int optimise(int[] tourArray, DistanceMatrix distances) {
+		if (distances.size() < MIN_NODES) {
+			return 0;
+		}
+		var tour = new CyclicTour(tourArray);
+		var neighbours = NeighbourLists.build(distances, NEIGHBOURS);
+		var activeNodes = new ActiveNodes(distances.size());
+
+		int moves = 0;
+		while (!activeNodes.isEmpty()) {
+			int node = activeNodes.poll();
+			NODE_VISITS.increment();
+			if (improveFrom(node, tour, neighbours, distances, activeNodes)) {
+				moves += 1;
+				activeNodes.add(node);  // There might be more improvements to make from here
+			}
+		}
+		tour.writeTo(tourArray);
+		return moves;
+	}
+
+	// Tries to make one improving move involving node, returning true if it did
+	// Implementations should add the nodes at the ends of every edge they change to activeNodes
+	protected abstract boolean improveFrom(int node, CyclicTour tour, NeighbourLists neighbours, DistanceMatrix distances, ActiveNodes activeNodes);
+
+	// FIFO queue of nodes that holds each node at most once
+	protected static class ActiveNodes {
+
+		private final int[] queue;
+		private final boolean[] queued;
+		private int head = 0;
+		private int count = 0;
+
+		// Starts with every node active
+		ActiveNodes(int size) {
+			queue = new int[size];
+			queued = new boolean[size];
+			for (int node = 0; node < size; node++) {
+				add(node);
+			}
+		}
+
+		void add(int node) {
+			if (queued[node]) {
+				return;
+			}
+			queued[node] = true;
+			queue[(head + count) % queue.length] = node;
+			count += 1;
+		}
+
+		int poll() {
+			int node = queue[head];
+			head = (head + 1) % queue.length;
+			count -= 1;
+			queued[node] = false;
+			return node;
+		}
+
+		boolean isEmpty() {
+			return count == 0;
+		}
+	}
+
+}
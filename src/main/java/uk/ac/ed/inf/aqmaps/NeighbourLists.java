@@ -0,0 +1,168 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.Arrays;
+
+// The k nearest other nodes of every node, closest first
+// Local search only tries moves that connect a node to one of its near neighbours, which is where nearly all improvements are
+// For euclidean distances the nodes are bucketed into a grid first so building the lists doesn't need every pairwise distance
+// Other costs (e.g. FlightCosts) are always precomputed, so every node's costs are just searched
+class NeighbourLists {
+
+	private final int k;
+	private final int[] neighbours;  // neighbours[node*k + i] is the ith closest node to node
+
+	private NeighbourLists(int k, int[] neighbours) {
+		this.k = k;
+		this.neighbours = neighbours;
+	}
+
+	// Builds lists of (at most) k neighbours for every node in distances
+	public static NeighbourLists build(DistanceMatrix distances, int k) {
+		int size = distances.size();
+		k = Math.min(k, size - 1);
+		var grid = distances.isEuclidean() ? new Grid(distances) : null;
+
+		var neighbours = new int[size * k];
+		var closest = new int[k];
+		var closestDistances = new double[k];
+		for (int node = 0; node < size; node++) {
+			int found = (grid != null) 
+					? grid.nearest(node, distances, closest, closestDistances) 
+					: nearestBySearch(node, distances, closest, closestDistances);
+			System.arraycopy(closest, 0, neighbours, node * k, found);
+		}
+		return new NeighbourLists(k, neighbours);
+	}
+
+	// Fills closest with the nearest nodes to node by checking every other node, returning how many were found
+	private static int nearestBySearch(int node, DistanceMatrix distances, int[] closest, double[] closestDistances) {
+		int found = 0;
+		for (int other = 0; other < distances.size(); other++) {
+			if (other == node) {
+				continue;
+			}
+			double distance = distances.between(node, other);
+			if (found < closest.length || distance < closestDistances[found - 1]) {
+				found = insertSorted(other, distance, closest, closestDistances, found);
+			}
+		}
+		return found;
+	}
+
+	// Inserts other into the sorted closest arrays (dropping the furthest if they're full), returning the new count
+	private static int insertSorted(int other, double distance, int[] closest, double[] closestDistances, int found) {
+		int i = (found < closest.length) ? found++ : found - 1;
+		while (i > 0 && closestDistances[i - 1] > distance) {
+			closest[i] = closest[i - 1];
+			closestDistances[i] = closestDistances[i - 1];
+			i--;
+		}
+		closest[i] = other;
+		closestDistances[i] = distance;
+		return found;
+	}
+
+	// Returns the ith closest node to node
+	public int get(int node, int i) {
+		return neighbours[node * k + i];
+	}
+
+	// Returns how many neighbours each node has
+	public int count() {
+		return k;
+	}
+
+	// Uniform grid over the nodes with (roughly) two nodes per cell
+	private static class Grid {
+
+		private final double west;
+		private final double south;
+		private final double cellSize;
+		private final int columns;
+		private final int rows;
+		private final int[] cellStarts;  // Nodes in cell c are cellNodes[cellStarts[c]] up to cellNodes[cellStarts[c+1] - 1]
+		private final int[] cellNodes;
+
+		Grid(DistanceMatrix distances) {
+			int size = distances.size();
+			double east = -Double.MAX_VALUE;
+			double north = -Double.MAX_VALUE;
+			double minLong = Double.MAX_VALUE;
+			double minLat = Double.MAX_VALUE;
+			for (int node = 0; node < size; node++) {
+				minLong = Math.min(minLong, distances.longitude(node));
+				minLat = Math.min(minLat, distances.latitude(node));
+				east = Math.max(east, distances.longitude(node));
+				north = Math.max(north, distances.latitude(node));
+			}
+			west = minLong;
+			south = minLat;
+			double width = Math.max(east - west, 1e-12);
+			double height = Math.max(north - south, 1e-12);
+			cellSize = Math.max(Math.sqrt(width * height * 2.0 / size), 1e-12);
+			columns = (int) (width / cellSize) + 1;
+			rows = (int) (height / cellSize) + 1;
+
+			// Counting sort of the nodes by cell
+			cellStarts = new int[columns * rows + 1];
+			var cells = new int[size];
+			for (int node = 0; node < size; node++) {
+				cells[node] = cellOf(distances.longitude(node), distances.latitude(node));
+				cellStarts[cells[node] + 1] += 1;
+			}
+			for (int c = 0; c < columns * rows; c++) {
+				cellStarts[c + 1] += cellStarts[c];
+			}
+			cellNodes = new int[size];
+			var filled = Arrays.copyOf(cellStarts, cellStarts.length);
+			for (int node = 0; node < size; node++) {
+				cellNodes[filled[cells[node]]++] = node;
+			}
+		}
+
+		// Fills closest with the nearest nodes to node (closest first), returning how many were found
+		// Searches rings of cells outwards until nothing further out could be closer than what we already have
+		int nearest(int node, DistanceMatrix distances, int[] closest, double[] closestDistances) {
+			int k = closest.length;
+			int found = 0;
+			int cell = cellOf(distances.longitude(node), distances.latitude(node));
+			int column = cell % columns;
+			int row = cell / columns;
+			int maxRing = Math.max(columns, rows);
+
+			for (int ring = 0; ring <= maxRing; ring++) {
+				for (int r = row - ring; r <= row + ring; r++) {
+					for (int c = column - ring; c <= column + ring; c++) {
+						boolean onRing = r == row - ring || r == row + ring || c == column - ring || c == column + ring;
+						if (!onRing || r < 0 || r >= rows || c < 0 || c >= columns) {
+							continue;
+						}
+						int ringCell = r * columns + c;
+						for (int i = cellStarts[ringCell]; i < cellStarts[ringCell + 1]; i++) {
+							int other = cellNodes[i];
+							if (other == node) {
+								continue;
+							}
+							double distance = distances.between(node, other);
+							if (found < k || distance < closestDistances[found - 1]) {
+								found = insertSorted(other, distance, closest, closestDistances, found);
+							}
+						}
+					}
+				}
+				// Every node in the next ring is at least ring*cellSize away
+				if (found == k && closestDistances[k - 1] <= ring * cellSize) {
+					break;
+				}
+			}
+			return found;
+		}
+
+		private int cellOf(double longitude, double latitude) {
+			int column = Math.min((int) ((longitude - west) / cellSize), columns - 1);
+			int row = Math.min((int) ((latitude - south) / cellSize), rows - 1);
+			return row * columns + column;
+		}
+	}
+
+}
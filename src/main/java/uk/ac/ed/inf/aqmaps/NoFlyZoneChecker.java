@@ -0,0 +1,312 @@
+package uk.ac.ed.inf.aqmaps;
+
+import static uk.ac.ed.inf.aqmaps.LookupPointUtils.moveDestination;
+import static uk.ac.ed.inf.aqmaps.LookupPointUtils.moveDestinationLatitude;
+import static uk.ac.ed.inf.aqmaps.LookupPointUtils.moveDestinationLongitude;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+import com.mapbox.geojson.BoundingBox;
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.Polygon;
+import com.mapbox.turf.TurfJoins;
+
+// Checks the legality of drone moves against a set of no-fly-zones and a confinement area
+// Holds no mutable state after construction, so a single instance can be shared between pilots (and threads)
+// moveIsLegal runs for every bearing the pilot considers, so it works on plain doubles and never allocates anything
+class NoFlyZoneChecker {
+
+	// Grid cells are about one move wide, so a move only ever needs to look at a handful of cells
+	private static final double GRID_CELL_SIZE = Drone.MOVE_DISTANCE;
+
+	// The confinement area
+	private final double west;
+	private final double south;
+	private final double east;
+	private final double north;
+
+	private final List<Polygon> noFlyZones;
+	
+	// Every line segment that makes up a no-fly-zone, flattened so that edge i goes 
+	// from (edges[4*i], edges[4*i + 1]) to (edges[4*i + 2], edges[4*i + 3]) as (longitude, latitude) pairs
+	private final double[] edges;
+	
+	// Spatial indexes so that a move is only checked against the edges (and no-fly-zones) near it
+	private final SpatialGrid edgeGrid;
+	private final SpatialGrid noFlyZoneGrid;
+	
+	private static final Metrics.Counter LEGALITY_CHECKS = Metrics.counter("aqmaps_legality_checks_total", "Moves checked against the no-fly-zones and confinement area");
+	private static final Metrics.Counter BITMAP_HITS = Metrics.counter("aqmaps_legality_bitmap_hits_total", "Legality checks answered by the legal move bitmap");
+	
+	// Optional table of moves known to be legal, checked before doing any geometry (null if not in use)
+	private volatile LegalMoveBitmap legalMoveBitmap = null;
+	
+	// Creates a NoFlyZoneChecker object that checks the legality of moves against the provided no-fly-zones and confinement area
+	public NoFlyZoneChecker(List<Polygon> noFlyZones, BoundingBox droneConfinementArea) {
+		this.noFlyZones = List.copyOf(noFlyZones);
+		this.west = droneConfinementArea.west();
+		this.south = droneConfinementArea.south();
+		this.east = droneConfinementArea.east();
+		this.north = droneConfinementArea.north();
+		
+		this.edges = flattenEdges(noFlyZones);
+		edgeGrid = buildEdgeGrid();
+		noFlyZoneGrid = buildNoFlyZoneGrid();
+	}
+	
+	// Returns true if the move starting at the specified point, moving in the direction of the specified bearing would be legal
+	public boolean moveIsLegal(Point point, int bearing) {
+		return moveIsLegal(point.longitude(), point.latitude(), bearing);
+	}
+	
+	// Same as above, but for a point given as a longitude and latitude
+	public boolean moveIsLegal(double longitude, double latitude, int bearing) {
+		LEGALITY_CHECKS.increment();
+		var bitmap = legalMoveBitmap;
+		if (bitmap != null && bitmap.definitelyLegal(longitude, latitude, bearing)) {
+			BITMAP_HITS.increment();
+			return true;
+		}
+		
+		// Where the move lands
+		double destinationLong = moveDestinationLongitude(longitude, bearing);
+		double destinationLat = moveDestinationLatitude(latitude, bearing);
+		// Move is not legal if it exits the drone confinement area
+		if (!(destinationLong > west && destinationLong < east && destinationLat > south && destinationLat < north)) {
+			return false;
+		}
+		// Move is not legal if it crosses any of the no-fly-zones' edges
+		return !lineIntersectsAnyEdge(longitude, latitude, destinationLong, destinationLat);
+	}
+	
+	// Returns true if the move starting at the specified point, moving in the direction of the specified bearing terminates inside a no-fly-zone
+	public boolean moveLandsInNoFlyZone(Point point, int bearing) {
+		return isInNoFlyZone(moveDestination(point, bearing));
+	}
+
+	// Returns true if the specified point is inside a no-fly-zone
+	public boolean isInNoFlyZone(Point point) {
+		var lng = point.longitude();
+		var lat = point.latitude();
+		if (!noFlyZoneGrid.overlaps(lng, lat, lng, lat)) {
+			return false;
+		}
+		// Only the no-fly-zones whose bounding box overlaps the point's cell can contain it
+		int cell = noFlyZoneGrid.cellAt(noFlyZoneGrid.rowOf(lat), noFlyZoneGrid.columnOf(lng));
+		for (int i = noFlyZoneGrid.firstItem(cell); i < noFlyZoneGrid.endItem(cell); i++) {
+			if (TurfJoins.inside(point, noFlyZones.get(noFlyZoneGrid.item(i)))) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	// Makes moveIsLegal check the bitmap first (it must have been built for this checker's no-fly-zones and confinement area)
+	void useLegalMoveBitmap(LegalMoveBitmap legalMoveBitmap) {
+		this.legalMoveBitmap = legalMoveBitmap;
+	}
+	
+	// Returns a key that is the same for any two checkers with the same no-fly-zones and confinement area
+	String geometryKey() {
+		try {
+			var digest = MessageDigest.getInstance("SHA-256");
+			var buffer = ByteBuffer.allocate(8 * (edges.length + 4));
+			buffer.putDouble(west).putDouble(south).putDouble(east).putDouble(north);
+			for (double coordinate : edges) {
+				buffer.putDouble(coordinate);
+			}
+			var hash = digest.digest(buffer.array());
+			var key = new StringBuilder();
+			for (int i = 0; i < 8; i++) {
+				key.append(String.format("%02x", hash[i]));
+			}
+			return key.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is always available", e);
+		}
+	}
+	
+	// Returns true if every move from every point in the box from (minLong, minLat) to (maxLong, maxLat),
+	// moving by (moveLong, moveLat), is definitely legal (used to build a LegalMoveBitmap)
+	// This is conservative: anything that comes within margin of an edge or the confinement area's boundary isn't counted as clear
+	boolean sweptBoxIsClear(double minLong, double minLat, double maxLong, double maxLat, double moveLong, double moveLat, double margin) {
+		// Every destination has to be strictly inside the confinement area
+		if (!(minLong + moveLong > west + margin && maxLong + moveLong < east - margin 
+				&& minLat + moveLat > south + margin && maxLat + moveLat < north - margin)) {
+			return false;
+		}
+		
+		// The area swept out by all of the moves, which an edge would have to touch to block one of them
+		double sweptMinLong = minLong + Math.min(0, moveLong) - margin;
+		double sweptMaxLong = maxLong + Math.max(0, moveLong) + margin;
+		double sweptMinLat = minLat + Math.min(0, moveLat) - margin;
+		double sweptMaxLat = maxLat + Math.max(0, moveLat) + margin;
+		if (!edgeGrid.overlaps(sweptMinLong, sweptMinLat, sweptMaxLong, sweptMaxLat)) {
+			return true;
+		}
+		
+		int lastRow = edgeGrid.rowOf(sweptMaxLat);
+		int lastColumn = edgeGrid.columnOf(sweptMaxLong);
+		for (int row = edgeGrid.rowOf(sweptMinLat); row <= lastRow; row++) {
+			for (int column = edgeGrid.columnOf(sweptMinLong); column <= lastColumn; column++) {
+				int cell = edgeGrid.cellAt(row, column);
+				for (int i = edgeGrid.firstItem(cell); i < edgeGrid.endItem(cell); i++) {
+					int edge = 4 * edgeGrid.item(i);
+					if (!edgeMissesSweptBox(minLong, minLat, maxLong, maxLat, moveLong, moveLat, margin, 
+							edges[edge], edges[edge + 1], edges[edge + 2], edges[edge + 3])) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+	
+	// Returns true if the edge P-Q stays at least margin away from the area swept by moving the box by (moveLong, moveLat)
+	// The swept area is convex, so they miss each other exactly when there is a line separating them. The only lines worth
+	// trying are perpendicular to the box's sides, to the move and to the edge (the separating axis theorem)
+	private static boolean edgeMissesSweptBox(double minLong, double minLat, double maxLong, double maxLat, double moveLong, double moveLat, 
+			double margin, double pLong, double pLat, double qLong, double qLat) {
+		double[][] axes = {{1, 0}, {0, 1}, {-moveLat, moveLong}, {-(qLat - pLat), qLong - pLong}};
+		for (var axis : axes) {
+			double axisLength = Math.hypot(axis[0], axis[1]);
+			if (axisLength == 0) {
+				continue;  // Zero length edge, the other axes are enough
+			}
+			// Project the box's corners, the move and the edge onto the axis
+			double c1 = axis[0]*minLong + axis[1]*minLat;
+			double c2 = axis[0]*maxLong + axis[1]*minLat;
+			double c3 = axis[0]*minLong + axis[1]*maxLat;
+			double c4 = axis[0]*maxLong + axis[1]*maxLat;
+			double move = axis[0]*moveLong + axis[1]*moveLat;
+			double sweptMin = Math.min(Math.min(c1, c2), Math.min(c3, c4)) + Math.min(0, move);
+			double sweptMax = Math.max(Math.max(c1, c2), Math.max(c3, c4)) + Math.max(0, move);
+			double p = axis[0]*pLong + axis[1]*pLat;
+			double q = axis[0]*qLong + axis[1]*qLat;
+			double gap = margin * axisLength;
+			if (Math.max(p, q) < sweptMin - gap || Math.min(p, q) > sweptMax + gap) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	// Returns true if the line segment from (sLong, sLat) to (eLong, eLat) intersects any no-fly-zone edge
+	// Any edge the segment touches must be listed in one of the grid cells the segment's bounding box overlaps, so only those are checked
+	// (An edge can be listed in more than one of those cells, checking it twice is cheaper than remembering which we've seen)
+	private boolean lineIntersectsAnyEdge(double sLong, double sLat, double eLong, double eLat) {
+		double minLong = Math.min(sLong, eLong);
+		double maxLong = Math.max(sLong, eLong);
+		double minLat = Math.min(sLat, eLat);
+		double maxLat = Math.max(sLat, eLat);
+		if (!edgeGrid.overlaps(minLong, minLat, maxLong, maxLat)) {
+			return false;
+		}
+		
+		int lastRow = edgeGrid.rowOf(maxLat);
+		int lastColumn = edgeGrid.columnOf(maxLong);
+		for (int row = edgeGrid.rowOf(minLat); row <= lastRow; row++) {
+			for (int column = edgeGrid.columnOf(minLong); column <= lastColumn; column++) {
+				int cell = edgeGrid.cellAt(row, column);
+				for (int i = edgeGrid.firstItem(cell); i < edgeGrid.endItem(cell); i++) {
+					int edge = 4 * edgeGrid.item(i);
+					if (lineIntersectsEdge(sLong, sLat, eLong, eLat, edges[edge], edges[edge + 1], edges[edge + 2], edges[edge + 3])) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+	
+	// Details on how this works will be in Section 3 of the report
+	// Returns true if the line segment from S to E intersects with the no-fly-zone line segment from P to Q
+	// Each vector (e.g. SE, the vector from S to E) is just a pair of doubles here
+	private static boolean lineIntersectsEdge(double sLong, double sLat, double eLong, double eLat, 
+			double pLong, double pLat, double qLong, double qLat) {
+		// Vector representing a no-fly-zone line segment
+		double pqLong = qLong - pLong;
+		double pqLat = qLat - pLat;
+		
+		// If the start and end points of the move are on different sides of a no-fly-zone line segment...
+		double crossPS = cross(pqLong, pqLat, sLong - pLong, sLat - pLat);
+		double crossPE = cross(pqLong, pqLat, eLong - pLong, eLat - pLat);
+		if ((crossPS >= 0) == (crossPE >= 0)) {
+			return false;
+		}
+		
+		// ...AND if the no-fly-zone line segment crosses the line segment between the start and end of the move
+		double seLong = eLong - sLong;
+		double seLat = eLat - sLat;
+		double crossSP = cross(seLong, seLat, pLong - sLong, pLat - sLat);
+		double crossSQ = cross(seLong, seLat, qLong - sLong, qLat - sLat);
+		return (crossSP >= 0) ^ (crossSQ >= 0);
+	}
+	
+	// Returns the (Z component of) the cross product of vector A and vector B
+	private static double cross(double aLong, double aLat, double bLong, double bLat) {
+		return aLong*bLat - aLat*bLong;
+	}
+	
+	// Returns every no-fly-zone line segment, flattened into one array (see the edges field)
+	private static double[] flattenEdges(List<Polygon> noFlyZones) {
+		int edgeCount = 0;
+		for (var noFlyZone : noFlyZones) {
+			edgeCount += noFlyZone.coordinates().get(0).size() - 1;
+		}
+		var edges = new double[4 * edgeCount];
+		int i = 0;
+		for (var noFlyZone : noFlyZones) {
+			var polyPoints = noFlyZone.coordinates().get(0);  // We only need the first coordinate list because our no-fly-zones have no inner points
+			for (int p = 0; p < polyPoints.size() - 1; p++) {
+				edges[i++] = polyPoints.get(p).longitude();
+				edges[i++] = polyPoints.get(p).latitude();
+				edges[i++] = polyPoints.get(p + 1).longitude();
+				edges[i++] = polyPoints.get(p + 1).latitude();
+			}
+		}
+		return edges;
+	}
+	
+	// Indexes every no-fly-zone edge by its bounding box
+	private SpatialGrid buildEdgeGrid() {
+		int edgeCount = edges.length / 4;
+		var minLongs = new double[edgeCount];
+		var minLats = new double[edgeCount];
+		var maxLongs = new double[edgeCount];
+		var maxLats = new double[edgeCount];
+		for (int i = 0; i < edgeCount; i++) {
+			minLongs[i] = Math.min(edges[4*i], edges[4*i + 2]);
+			maxLongs[i] = Math.max(edges[4*i], edges[4*i + 2]);
+			minLats[i] = Math.min(edges[4*i + 1], edges[4*i + 3]);
+			maxLats[i] = Math.max(edges[4*i + 1], edges[4*i + 3]);
+		}
+		return new SpatialGrid(minLongs, minLats, maxLongs, maxLats, GRID_CELL_SIZE);
+	}
+	
+	// Indexes every no-fly-zone by its bounding box
+	private SpatialGrid buildNoFlyZoneGrid() {
+		int zoneCount = noFlyZones.size();
+		var minLongs = new double[zoneCount];
+		var minLats = new double[zoneCount];
+		var maxLongs = new double[zoneCount];
+		var maxLats = new double[zoneCount];
+		for (int i = 0; i < zoneCount; i++) {
+			minLongs[i] = Double.MAX_VALUE;
+			minLats[i] = Double.MAX_VALUE;
+			maxLongs[i] = -Double.MAX_VALUE;
+			maxLats[i] = -Double.MAX_VALUE;
+			for (var point : noFlyZones.get(i).coordinates().get(0)) {  // Finding the bounds of the no-fly-zone (just min/max search)
+				minLongs[i] = Math.min(minLongs[i], point.longitude());
+				minLats[i] = Math.min(minLats[i], point.latitude());
+				maxLongs[i] = Math.max(maxLongs[i], point.longitude());
+				maxLats[i] = Math.max(maxLats[i], point.latitude());
+			}
+		}
+		return new SpatialGrid(minLongs, minLats, maxLongs, maxLats, GRID_CELL_SIZE);
+	}
+	
+}
@@ -0,0 +1,120 @@
+package uk.ac.ed.inf.aqmaps;
+
+// Or-opt: moves a chain of 1 to MAX_SEGMENT_LENGTH consecutive nodes to somewhere else in the tour (possibly reversed)
+// Good at fixing the odd sensor that greedy left stranded, which 2-opt often can't do in one move
+class OrOptOptimiser extends NeighbourListOptimiser {
+
+	private static final int MAX_SEGMENT_LENGTH = 3;
+
+	@Override
+	public String getName() {
+		return "or-opt";
+	}
+
+	// Tries to move a segment starting at node (going either way round the tour) next to one of its neighbours
+	@Override
+	protected boolean improveFrom(int s1, CyclicTour tour, NeighbourLists neighbours, DistanceMatrix distances, ActiveNodes activeNodes) {
+		var segment = new int[MAX_SEGMENT_LENGTH];
+		for (int direction = 0; direction < 2; direction++) {
+			boolean forwards = direction == 0;
+			segment[0] = s1;
+			for (int length = 1; length <= MAX_SEGMENT_LENGTH; length++) {
+				if (length > 1) {
+					segment[length - 1] = step(tour, segment[length - 2], forwards);
+				}
+				int s2 = segment[length - 1];
+				int p = step(tour, s1, !forwards);  // Node before the segment
+				int q = step(tour, s2, forwards);   // Node after the segment
+				if (p == q || contains(segment, length, p) || contains(segment, length, q)) {
+					break;  // The segment is (nearly) the whole tour
+				}
+				if (tryMoveSegment(s1, s2, p, q, segment, length, forwards, tour, neighbours, distances, activeNodes)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	// Looks for the best place near either end of the segment s1..s2 (between p and q) to move it to, and moves it there if that saves anything
+	private static boolean tryMoveSegment(int s1, int s2, int p, int q, int[] segment, int length, boolean forwards,
+			CyclicTour tour, NeighbourLists neighbours, DistanceMatrix distances, ActiveNodes activeNodes) {
+
+		// How much taking the segment out (and joining p to q) saves
+		double removalGain = distances.between(p, s1) + distances.between(s2, q) - distances.between(p, q);
+		if (removalGain <= EPSILON) {
+			return false;
+		}
+
+		double bestGain = EPSILON;
+		int bestC = -1;
+		int bestD = -1;
+		boolean bestReversed = false;
+
+		for (int end = 0; end < 2; end++) {
+			int segmentEnd = (end == 0) ? s1 : s2;
+			for (int i = 0; i < neighbours.count(); i++) {
+				int x = neighbours.get(segmentEnd, i);
+				if (distances.between(segmentEnd, x) >= removalGain) {
+					break;  // Neighbours are sorted, none of the rest can pay for their new edge
+				}
+				// Try inserting into the edge just after x and the edge just before x
+				for (int side = 0; side < 2; side++) {
+					int c = (side == 0) ? x : step(tour, x, !forwards);
+					int d = (side == 0) ? step(tour, x, forwards) : x;
+					if (c == q || d == p || contains(segment, length, c) || contains(segment, length, d)) {
+						continue;  // Inserting here would either do nothing or break the segment up
+					}
+					double cd = distances.between(c, d);
+					double forwardsCost = distances.between(c, s1) + distances.between(s2, d) - cd;  // c s1..s2 d
+					double reversedCost = distances.between(c, s2) + distances.between(s1, d) - cd;  // c s2..s1 d
+					if (removalGain - forwardsCost > bestGain) {
+						bestGain = removalGain - forwardsCost;
+						bestC = c;
+						bestD = d;
+						bestReversed = false;
+					}
+					if (removalGain - reversedCost > bestGain) {
+						bestGain = removalGain - reversedCost;
+						bestC = c;
+						bestD = d;
+						bestReversed = true;
+					}
+				}
+			}
+		}
+		if (bestC == -1) {
+			return false;
+		}
+
+		// Moving a segment is the same as (up to) three 2-opt moves
+		tour.flip(p, s1, bestC, bestD);  // p c ... q s2..s1 d
+		tour.flip(p, bestC, q, s2);      // p q ... c s2..s1 d
+		if (!bestReversed) {
+			tour.flip(bestC, s2, s1, bestD);  // p q ... c s1..s2 d
+		}
+
+		activeNodes.add(p);
+		activeNodes.add(q);
+		activeNodes.add(s1);
+		activeNodes.add(s2);
+		activeNodes.add(bestC);
+		activeNodes.add(bestD);
+		return true;
+	}
+
+	// Returns the next node (or the previous one if forwards is false)
+	private static int step(CyclicTour tour, int node, boolean forwards) {
+		return forwards ? tour.next(node) : tour.prev(node);
+	}
+
+	private static boolean contains(int[] segment, int length, int node) {
+		for (int i = 0; i < length; i++) {
+			if (segment[i] == node) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
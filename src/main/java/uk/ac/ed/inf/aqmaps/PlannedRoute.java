@@ -0,0 +1,85 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// A route from FlightPlanner along with some stats about how it was planned
+public class PlannedRoute {
+
+	private final List<Sensor> route;
+	private final String optimiserName;
+	private final double greedyLength;     // Length of the greedy route the optimiser started from (NaN once sensors are skipped)
+	private final double length;
+	private final int improvingMoves;
+	private final long planningTimeNanos;
+	private final List<Sensor> skipped;     // Sensors left out of the route so it fits in the drone's moves (see SensorSelector)
+
+	public PlannedRoute(List<Sensor> route, String optimiserName, double greedyLength, double length, int improvingMoves, long planningTimeNanos) {
+		this(route, optimiserName, greedyLength, length, improvingMoves, planningTimeNanos, new ArrayList<Sensor>());
+	}
+
+	private PlannedRoute(List<Sensor> route, String optimiserName, double greedyLength, double length, int improvingMoves, 
+			long planningTimeNanos, List<Sensor> skipped) {
+		this.route = route;
+		this.optimiserName = optimiserName;
+		this.greedyLength = greedyLength;
+		this.length = length;
+		this.improvingMoves = improvingMoves;
+		this.planningTimeNanos = planningTimeNanos;
+		this.skipped = skipped;
+	}
+
+	// Returns this route cut down to fewer sensors, which took extraNanos more to choose
+	// The greedy route went through every sensor, so its length can't be compared with the cut down route's any more
+	public PlannedRoute withSkippedSensors(List<Sensor> route, double length, List<Sensor> skipped, long extraNanos) {
+		double comparableGreedyLength = skipped.isEmpty() ? greedyLength : Double.NaN;
+		return new PlannedRoute(route, optimiserName, comparableGreedyLength, length, improvingMoves, planningTimeNanos + extraNanos, skipped);
+	}
+
+	public List<Sensor> getRoute() {
+		return route;
+	}
+
+	public double getLength() {
+		return length;
+	}
+
+	// NaN if sensors were skipped (see withSkippedSensors)
+	public double getGreedyLength() {
+		return greedyLength;
+	}
+
+	// Improving moves made while optimising the route through every sensor
+	public int getImprovingMoves() {
+		return improvingMoves;
+	}
+
+	public long getPlanningTimeNanos() {
+		return planningTimeNanos;
+	}
+
+	public List<Sensor> getSkipped() {
+		return skipped;
+	}
+
+	// One line summary of how planning went, e.g. for printing after each run
+	public String summary() {
+		if (!skipped.isEmpty()) {
+			return String.format("Planned %d sensors with %s in %.2f ms: length %.6f. Skipped %d sensors to stay within the move budget.",
+					route.size(),
+					optimiserName,
+					planningTimeNanos / 1e6,
+					length,
+					skipped.size());
+		}
+		return String.format("Planned %d sensors with %s in %.2f ms: length %.6f (greedy %.6f, %.1f%% shorter) after %d improving moves.",
+				route.size(),
+				optimiserName,
+				planningTimeNanos / 1e6,
+				length,
+				greedyLength,
+				(greedyLength > 0) ? 100 * (greedyLength - length) / greedyLength : 0.0,
+				improvingMoves);
+	}
+
+}
@@ -6,8 +6,19 @@ public class PointUtils {
 	
 	// Returns true if point is in range of waypoint
 	public static boolean inRange(Point point, Waypoint waypoint) {
-		double arrivalDistance = waypoint instanceof StartEndPoint ? Drone.END_POINT_DISTANCE : Drone.SENSOR_READ_DISTANCE;
-		return distanceBetween(point, waypoint.getPoint()) < arrivalDistance;
+		return inRange(point.longitude(), point.latitude(), waypoint);
+	}
+	
+	// Same as inRange(point, waypoint), without creating a Point (same arithmetic, so always the same answer)
+	public static boolean inRange(double longitude, double latitude, Waypoint waypoint) {
+		var b = waypoint.getPoint();
+		double distance = Math.sqrt(Math.pow(longitude - b.longitude(), 2) + Math.pow(latitude - b.latitude(), 2));
+		return distance < arrivalDistance(waypoint);
+	}
+	
+	// Returns how close the drone has to get to the waypoint to count as having arrived
+	public static double arrivalDistance(Waypoint waypoint) {
+		return waypoint instanceof StartEndPoint ? Drone.END_POINT_DISTANCE : Drone.SENSOR_READ_DISTANCE;
 	}
 
 	// Returns the euclidean distance between pointA and pointB
@@ -36,6 +47,17 @@ public class PointUtils {
 		return newPosition;
 	}
 	
+	// Returns the longitude you would arrive at if moving from the specified longitude with the specified bearing
+	// Same as moveDestination(point, bearing).longitude(), without creating a Point
+	public static double moveDestinationLongitude(double longitude, int bearing) {
+		return longitude + Drone.MOVE_DISTANCE * Math.cos(Math.toRadians(bearing));
+	}
+	
+	// Returns the latitude you would arrive at if moving from the specified latitude with the specified bearing
+	public static double moveDestinationLatitude(double latitude, int bearing) {
+		return latitude + Drone.MOVE_DISTANCE * Math.sin(Math.toRadians(bearing));
+	}
+	
 	// Returns bearing mod 360
 	public static int mod360(int bearing) {
 		return Math.floorMod(bearing, 360);
@@ -0,0 +1,20 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.List;
+
+import com.mapbox.geojson.Point;
+
+// Lets a Pilot reconsider the order of the sensors it still has to visit while it's flying
+// Called after every sensor reading, so a flight that has gone differently from the plan (e.g. a long detour around
+// a building) can carry on with whatever order suits where the drone actually is now
+interface ReplanningHook {
+
+	// Used by Pilots that aren't given a hook, keeps following the planned route as it is
+	ReplanningHook NONE = (position, end, remaining) -> remaining;
+
+	// Returns the order to visit the remaining sensors in, flying from position and finishing at end
+	// remaining is the current order (the planned one, or what the hook returned last time) and must not be changed
+	// The returned list has to contain exactly the same sensors
+	List<Sensor> replan(Point position, Point end, List<Sensor> remaining);
+
+}
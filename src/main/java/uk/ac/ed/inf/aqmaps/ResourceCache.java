@@ -0,0 +1,194 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.Polygon;
+
+// Persistent on-disk cache for the web server data that (almost) never changes
+// what-3-words addresses always resolve to the same point, so they are kept forever
+// The no-fly-zones can change now and again, so they expire after NO_FLY_ZONES_MAX_AGE
+// Both are stored in a small binary format so that loading them needs no JSON parsing at all
+class ResourceCache {
+
+	// Written at the start of each file so we never try to read something that isn't one of our cache files
+	private static final int MAGIC_NUMBER = 0x41514D43;  // "AQMC"
+	// Bump this whenever the layout of the files changes, old files are then just ignored
+	private static final int FORMAT_VERSION = 1;
+
+	// Where App (and FlightPlanningService) keep the cache, relative to the working directory
+	static final String DEFAULT_DIRECTORY = ".aqmaps-cache";
+
+	private static final String W3W_FILENAME = "what3words.bin";
+	private static final String NO_FLY_ZONES_FILENAME = "no-fly-zones.bin";
+
+	public static final Duration NO_FLY_ZONES_MAX_AGE = Duration.ofDays(1);
+
+	private final Path directory;
+
+	// what-3-words address -> coordinates, filled from disk and by the lookups WebServer makes
+	private final Map<String, Point> w3wCoordinates = new ConcurrentHashMap<>();
+	private volatile boolean w3wCoordinatesChanged = false;
+
+	private ResourceCache(Path directory) {
+		this.directory = directory;
+	}
+
+	// Returns a cache backed by the files in directory (which is only created once something is written to the cache)
+	// Missing, outdated or corrupt cache files are treated as an empty cache
+	public static ResourceCache openIn(Path directory) {
+		var cache = new ResourceCache(directory);
+		cache.loadW3wCoordinates();
+		return cache;
+	}
+
+	public Optional<Point> getCoordinate(String w3wAddress) {
+		return Optional.ofNullable(w3wCoordinates.get(w3wAddress));
+	}
+
+	public void putCoordinate(String w3wAddress, Point point) {
+		if (w3wCoordinates.put(w3wAddress, point) == null) {
+			w3wCoordinatesChanged = true;
+		}
+	}
+
+	// Returns the cached no-fly-zones if they were saved less than NO_FLY_ZONES_MAX_AGE ago
+	public Optional<List<Polygon>> getNoFlyZones() {
+		var file = directory.resolve(NO_FLY_ZONES_FILENAME);
+		if (!Files.exists(file)) {
+			return Optional.empty();
+		}
+		try (var in = openCacheFile(file)) {
+			long savedAt = in.readLong();
+			if (System.currentTimeMillis() - savedAt > NO_FLY_ZONES_MAX_AGE.toMillis()) {
+				return Optional.empty();  // Expired, go and get a fresh copy
+			}
+			int zoneCount = in.readInt();
+			var noFlyZones = new ArrayList<Polygon>(zoneCount);
+			for (int i = 0; i < zoneCount; i++) {
+				int pointCount = in.readInt();
+				var points = new ArrayList<Point>(pointCount);
+				for (int j = 0; j < pointCount; j++) {
+					double lng = in.readDouble();
+					double lat = in.readDouble();
+					points.add(Point.fromLngLat(lng, lat));
+				}
+				noFlyZones.add(Polygon.fromLngLats(List.of(points)));
+			}
+			return Optional.of(noFlyZones);
+		} catch (IOException e) {  // Also covers files that were cut short or aren't ours
+			return Optional.empty();
+		}
+	}
+
+	// Saves the no-fly-zones to disk, stamped with the current time so they can expire
+	public void putNoFlyZones(List<Polygon> noFlyZones) {
+		writeAtomically(directory.resolve(NO_FLY_ZONES_FILENAME), out -> {
+			out.writeLong(System.currentTimeMillis());
+			out.writeInt(noFlyZones.size());
+			for (var noFlyZone : noFlyZones) {
+				var points = noFlyZone.coordinates().get(0);  // Our no-fly-zones have no inner points
+				out.writeInt(points.size());
+				for (var point : points) {
+					out.writeDouble(point.longitude());
+					out.writeDouble(point.latitude());
+				}
+			}
+		});
+	}
+
+	// Writes any new what-3-words coordinates to disk
+	public synchronized void save() {
+		if (!w3wCoordinatesChanged) {
+			return;
+		}
+		w3wCoordinatesChanged = false;
+		var snapshot = Map.copyOf(w3wCoordinates);
+		writeAtomically(directory.resolve(W3W_FILENAME), out -> {
+			out.writeInt(snapshot.size());
+			for (var entry : snapshot.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeDouble(entry.getValue().longitude());
+				out.writeDouble(entry.getValue().latitude());
+			}
+		});
+	}
+
+	private void loadW3wCoordinates() {
+		var file = directory.resolve(W3W_FILENAME);
+		if (!Files.exists(file)) {
+			return;
+		}
+		try (var in = openCacheFile(file)) {
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				var w3wAddress = in.readUTF();
+				double lng = in.readDouble();
+				double lat = in.readDouble();
+				w3wCoordinates.put(w3wAddress, Point.fromLngLat(lng, lat));
+			}
+		} catch (IOException e) {
+			w3wCoordinates.clear();  // Don't trust any of it
+		}
+	}
+
+	// Opens a cache file and checks its header, throwing IOException if it isn't a cache file we can read
+	private static DataInputStream openCacheFile(Path file) throws IOException {
+		var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+		if (in.readInt() != MAGIC_NUMBER || in.readInt() != FORMAT_VERSION) {
+			in.close();
+			throw new IOException("Not a cache file this version can read: " + file);
+		}
+		return in;
+	}
+
+	// Writes the header and contents to a temporary file, then moves it over the old file
+	// This way a crash (or another run) can never see a half-written cache file
+	private synchronized void writeAtomically(Path file, CacheWriter contents) {
+		Path temporaryFile = null;
+		try {
+			Files.createDirectories(directory);
+			temporaryFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+			try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)))) {
+				out.writeInt(MAGIC_NUMBER);
+				out.writeInt(FORMAT_VERSION);
+				contents.write(out);
+			}
+			Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// The cache is only an optimisation, so failing to write it isn't fatal
+			System.out.printf("Warning: Could not write cache file %s (%s)%n", file, e.getMessage());
+			deleteQuietly(temporaryFile);
+		}
+	}
+
+	// Cleans up after a failed write, the temporary file is of no use to anyone (null if it was never created)
+	private static void deleteQuietly(Path temporaryFile) {
+		if (temporaryFile == null) {
+			return;
+		}
+		try {
+			Files.deleteIfExists(temporaryFile);
+		} catch (IOException e) {
+			// Already warned about the write failing
+		}
+	}
+
+	private interface CacheWriter {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+}
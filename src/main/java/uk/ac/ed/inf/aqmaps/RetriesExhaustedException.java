@@ -0,0 +1,13 @@
+package uk.ac.ed.inf.aqmaps;
+
+// Thrown when every attempt at a request failed (timed out, lost its connection, or got a server error)
+// The cause is whatever went wrong with the last attempt
+public class RetriesExhaustedException extends DataRetrievalException {
+
+	private static final long serialVersionUID = 1L;
+
+	public RetriesExhaustedException(String message, Throwable cause) {
+		super(message, cause);
+	}
+	
+}
@@ -0,0 +1,44 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+// How hard RetryingHttpClient tries to get a response: how many attempts, how long each may take, and how long to
+// wait between them. The waits grow exponentially with "full jitter" (a random wait between zero and the exponential
+// delay), so that many requests failing at once don't all come back at the same moment and fail together again
+class RetryPolicy {
+
+	static final RetryPolicy DEFAULT = new RetryPolicy(10, Duration.ofSeconds(10), Duration.ofMillis(50), Duration.ofSeconds(2));
+
+	private final int maxAttempts;
+	private final Duration timeout;
+	private final long baseDelayMillis;
+	private final long maxDelayMillis;
+
+	// timeout is how long each attempt may take to get the whole response (headers and body) before it counts as failed
+	public RetryPolicy(int maxAttempts, Duration timeout, Duration baseDelay, Duration maxDelay) {
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException("A request needs at least one attempt");
+		}
+		this.maxAttempts = maxAttempts;
+		this.timeout = timeout;
+		this.baseDelayMillis = baseDelay.toMillis();
+		this.maxDelayMillis = maxDelay.toMillis();
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	public Duration getTimeout() {
+		return timeout;
+	}
+
+	// Returns how long to wait (in milliseconds) after the provided attempt (counting from 1) failed
+	long delayAfter(int attempt) {
+		int doublings = Math.min(attempt - 1, 30);  // Stops the shift overflowing, the delay is long since capped by then
+		long exponentialDelay = Math.min(maxDelayMillis, baseDelayMillis << doublings);
+		return ThreadLocalRandom.current().nextLong(exponentialDelay + 1);
+	}
+
+}
@@ -0,0 +1,141 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+// Sends GET requests without blocking, retrying the ones that fail in a way that might not happen again
+// (timeouts, dropped connections and 5xx/429 responses) after a backoff delay, as set out by a RetryPolicy
+// Each attempt has the policy's timeout to finish, body and all, so the body handler should read the whole body
+// (a streamed body can't be timed out once its headers have arrived). A timed out attempt is given up on, but on Java 11
+// its exchange can't actually be aborted, so a server that stalls can hold a connection per timed out attempt
+// Every request goes through a CircuitBreaker first, so once the server keeps failing requests stop being sent at all
+// Nothing here blocks a thread or exits the JVM: waits between attempts are scheduled, and failures complete the
+// future exceptionally with a DataRetrievalException saying what went wrong
+class RetryingHttpClient {
+
+	private static final Metrics.Counter HTTP_REQUESTS = Metrics.counter("aqmaps_http_requests_total", "HTTP requests sent (including retries)");
+	private static final Metrics.Counter HTTP_RETRIES = Metrics.counter("aqmaps_http_retries_total", "HTTP requests that failed and were sent again");
+	private static final Metrics.Counter HTTP_TIMEOUTS = Metrics.counter("aqmaps_http_timeouts_total", "HTTP requests that got no response within the retry policy's timeout");
+
+	private final HttpClient client;
+	private final RetryPolicy retryPolicy;
+	private final CircuitBreaker circuitBreaker;
+
+	public RetryingHttpClient(HttpClient client, RetryPolicy retryPolicy, CircuitBreaker circuitBreaker) {
+		this.client = client;
+		this.retryPolicy = retryPolicy;
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	// Requests the URI, completing with the response once one comes back with status code 200
+	// Otherwise completes exceptionally with (a CompletionException wrapping) one of:
+	//   UnexpectedHTTPResponseException  the server answered with anything else (after retrying, for 5xx and 429)
+	//   ServerUnavailableException       the server couldn't be connected to, or the circuit breaker is open
+	//   RetriesExhaustedException        every attempt timed out or lost its connection
+	public <T> CompletableFuture<HttpResponse<T>> get(URI uri, BodyHandler<T> bodyHandler) {
+		var request = HttpRequest.newBuilder().uri(uri).build();
+		return attempt(request, bodyHandler, 1);
+	}
+
+	private <T> CompletableFuture<HttpResponse<T>> attempt(HttpRequest request, BodyHandler<T> bodyHandler, int attempt) {
+		if (!circuitBreaker.allowRequest()) {
+			return CompletableFuture.failedFuture(new ServerUnavailableException(String.format(
+					"Too many requests to %s have failed, not sending any more for now", serverOf(request))));
+		}
+		HTTP_REQUESTS.increment();
+		var send = client.sendAsync(request, bodyHandler);
+		// The timeout goes on a copy so the original can still be cancelled when it fires. On Java 16+ that aborts the
+		// exchange, but on Java 11 (what the build targets) cancelling only completes the future: the stalled exchange
+		// keeps its connection until the server finishes or drops it, and the retry goes out on another connection
+		return send.copy()
+				.orTimeout(retryPolicy.getTimeout().toMillis(), TimeUnit.MILLISECONDS)
+				.handle((response, exception) -> {
+					Exception failure;
+					if (exception == null) {
+						int statusCode = response.statusCode();
+						if (!isRetryable(statusCode)) {
+							circuitBreaker.recordSuccess();  // The server is working, even if it didn't have what we asked for
+							if (statusCode == 200) {
+								return CompletableFuture.completedFuture(response);
+							}
+							discardBody(response);
+							return CompletableFuture.<HttpResponse<T>>failedFuture(unexpectedResponse(statusCode));
+						}
+						circuitBreaker.recordFailure();
+						discardBody(response);
+						failure = unexpectedResponse(statusCode);
+					} else {
+						circuitBreaker.recordFailure();
+						var cause = (exception instanceof CompletionException) ? exception.getCause() : exception;
+						if (cause instanceof TimeoutException) {
+							send.cancel(true);  // Only releases the connection on Java 16+, see above
+							cause = new HttpTimeoutException("No complete response within " + retryPolicy.getTimeout());
+						}
+						if (cause instanceof ConnectException) {
+							// Nothing is listening, trying again won't help
+							return CompletableFuture.<HttpResponse<T>>failedFuture(new ServerUnavailableException(String.format(
+									"Unable to connect to %s at port %d", serverOf(request), request.uri().getPort()), cause));
+						}
+						if (!(cause instanceof IOException)) {
+							return CompletableFuture.<HttpResponse<T>>failedFuture(cause);  // Not a network problem, so a bug
+						}
+						if (cause instanceof HttpTimeoutException) {
+							HTTP_TIMEOUTS.increment();
+						}
+						failure = (IOException) cause;
+					}
+
+					if (attempt == retryPolicy.getMaxAttempts()) {
+						if (failure instanceof UnexpectedHTTPResponseException) {
+							return CompletableFuture.<HttpResponse<T>>failedFuture(failure);  // The server's last word on it
+						}
+						return CompletableFuture.<HttpResponse<T>>failedFuture(
+								new RetriesExhaustedException("Exceeded maximum number of request attempts", failure));
+					}
+					System.out.printf("Request failed. Retrying (%s/%s)...%n", attempt, retryPolicy.getMaxAttempts());
+					HTTP_RETRIES.increment();
+					var afterBackoff = CompletableFuture.delayedExecutor(retryPolicy.delayAfter(attempt), TimeUnit.MILLISECONDS);
+					return CompletableFuture.runAsync(() -> {}, afterBackoff)
+							.thenCompose(ignored -> attempt(request, bodyHandler, attempt + 1));
+				})
+				.thenCompose(Function.identity());
+	}
+
+	// Server errors and "too many requests" might well not happen next time, anything else will
+	private static boolean isRetryable(int statusCode) {
+		return statusCode == 429 || (statusCode >= 500 && statusCode <= 599);
+	}
+
+	private static UnexpectedHTTPResponseException unexpectedResponse(int statusCode) {
+		return new UnexpectedHTTPResponseException(
+				String.format("Did not receive HTTP status code 200 (got %d instead), perhaps the date is invalid", statusCode));
+	}
+
+	// Streamed bodies hold on to their connection until they're closed
+	private static void discardBody(HttpResponse<?> response) {
+		if (response.body() instanceof InputStream) {
+			try {
+				((InputStream) response.body()).close();
+			} catch (IOException e) {
+				// Already failing for a better reason
+			}
+		}
+	}
+
+	private static String serverOf(HttpRequest request) {
+		return request.uri().getScheme() + "://" + request.uri().getHost();
+	}
+
+}
@@ -0,0 +1,48 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.List;
+
+import com.mapbox.geojson.Point;
+
+// How routes get planned for a run: which optimiser to use, whether to plan with real flight costs and whether to cut
+// routes down to the sensors that fit in the drone's moves
+// Holds no per-route state, so one RoutePlanner can plan routes for several dates at once
+class RoutePlanner {
+
+	private final TourOptimiser optimiser;
+	private final FlightCosts flightCosts;  // null to plan with straight line distances
+	private final SensorSelector selector;  // null to always plan a route through every sensor
+
+	public RoutePlanner(TourOptimiser optimiser, FlightCosts flightCosts) {
+		this(optimiser, flightCosts, null);
+	}
+
+	public RoutePlanner(TourOptimiser optimiser, FlightCosts flightCosts, SensorSelector selector) {
+		this.optimiser = optimiser;
+		this.flightCosts = flightCosts;
+		this.selector = selector;
+	}
+
+	// Plans a route through the sensors (only those chosen to fit in the drone's moves, if there's a selector)
+	public PlannedRoute plan(Point start, List<Sensor> sensors) {
+		var everySensor = planEverySensor(start, sensors);
+		return (selector == null) ? everySensor : selector.select(start, sensors, everySensor, this);
+	}
+
+	// Plans a route through every one of the sensors, however long it is
+	public PlannedRoute planEverySensor(Point start, List<Sensor> sensors) {
+		if (flightCosts == null) {
+			return FlightPlanner.plan(start, sensors, optimiser);
+		}
+		return FlightPlanner.plan(start, sensors, optimiser, flightCosts);
+	}
+
+	// Returns the costs routes are planned with (node 0 is start, node i is sensor i-1)
+	public DistanceMatrix costsFor(Point start, List<Sensor> sensors) {
+		if (flightCosts == null) {
+			return DistanceMatrix.fromStartAndSensors(start, sensors);
+		}
+		return flightCosts.matrixFor(start, sensors);
+	}
+
+}
@@ -0,0 +1,334 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.ToDoubleFunction;
+
+import com.mapbox.geojson.Point;
+
+// Picks which sensors to visit when a route through all of them won't fit in the drone's moves (an orienteering problem)
+// Rather than the drone running out of moves partway round and leaving the rest unread, the route is cut down up front
+// to the sensors worth the most per move, using the rest of the budget as fully as possible
+//
+// A fast heuristic that scales to large sensor lists:
+//   1. Plan the usual route through every sensor. If it fits, that's the route (so nothing changes when it does)
+//   2. Drop the sensor with the lowest prize per move saved by leaving it out, over and over until the route fits
+//      (a heap of those ratios, updated as the route's neighbours change, makes this O(n log n))
+//   3. Put back the dropped sensors with the best prize per extra move that still fit, each trying only the places
+//      next to its nearest neighbours
+//   4. Re-plan the chosen sensors with the optimiser, in case that shortens the route enough to fit more in
+class SensorSelector {
+
+	// Sensors below this battery level have their readings shown as unreliable (the same threshold as FlightMap's)
+	private static final double LOW_BATTERY = 10.0;
+	private static final double LOW_BATTERY_PRIZE = 2.0;
+
+	// Visiting every sensor counts the same, except low battery sensors count double since someone needs to hear about them
+	static final ToDoubleFunction<Sensor> DEFAULT_PRIZE = sensor -> (sensor.getBattery() < LOW_BATTERY) ? LOW_BATTERY_PRIZE : 1.0;
+
+	// Straight line distances don't count detours or the drone only flying on 36 bearings, so they are scaled up by this
+	// to estimate moves (and every leg takes at least one move, however close the sensors are). Flight costs are moves already
+	private static final double STRAIGHT_LINE_SLACK = 1.1;
+
+	// Places next to this many of a sensor's nearest neighbours are tried when putting it back into the route
+	private static final int INSERTION_NEIGHBOURS = 10;
+
+	// How many times steps 3 and 4 are repeated at most
+	private static final int MAX_ROUNDS = 3;
+
+	private static final Metrics.Counter SKIPPED_SENSORS = Metrics.counter("aqmaps_selector_skipped_sensors_total", "Sensors left out of routes to stay within the move budget");
+
+	private final ToDoubleFunction<Sensor> prize;
+	private final int moveBudget;
+
+	public SensorSelector() {
+		this(DEFAULT_PRIZE, Drone.MAX_MOVES);
+	}
+
+	public SensorSelector(ToDoubleFunction<Sensor> prize, int moveBudget) {
+		this.prize = prize;
+		this.moveBudget = moveBudget;
+	}
+
+	// Returns the planned route through every sensor if it fits in the move budget, otherwise a route through the sensors
+	// chosen to be visited (with the rest listed as skipped)
+	public PlannedRoute select(Point start, List<Sensor> sensors, PlannedRoute everySensor, RoutePlanner planner) {
+		long startTime = System.nanoTime();
+		var distances = planner.costsFor(start, sensors);
+		var tour = new Tour(distances, nodesOf(everySensor.getRoute(), sensors));
+		double budget = moveBudget;
+		if (tour.length <= budget) {
+			return everySensor;
+		}
+
+		var prizes = new double[distances.size()];
+		for (int i = 0; i < sensors.size(); i++) {
+			prizes[i + 1] = prize.applyAsDouble(sensors.get(i));
+		}
+
+		dropUntilWithin(tour, prizes, budget);
+		var neighbours = NeighbourLists.build(distances, INSERTION_NEIGHBOURS);
+		for (int round = 0; round < MAX_ROUNDS; round++) {
+			boolean inserted = insertWhileWithin(tour, prizes, budget, neighbours);
+			boolean shortened = reoptimise(tour, start, sensors, planner);
+			if (!inserted && !shortened) {
+				break;
+			}
+		}
+
+		var route = new ArrayList<Sensor>();
+		var skipped = new ArrayList<Sensor>();
+		for (int node : tour.nodes()) {
+			route.add(sensors.get(node - 1));
+		}
+		var inRoute = Collections.newSetFromMap(new IdentityHashMap<Sensor, Boolean>());
+		inRoute.addAll(route);
+		for (var sensor : sensors) {
+			if (!inRoute.contains(sensor)) {
+				skipped.add(sensor);
+			}
+		}
+		SKIPPED_SENSORS.add(skipped.size());
+		return everySensor.withSkippedSensors(route, tour.plannedLength(), skipped, System.nanoTime() - startTime);
+	}
+
+	// Estimated moves to fly from node a to node b (also how FleetPlanner checks its routes against the move budget)
+	static double estimatedMoves(DistanceMatrix distances, int a, int b) {
+		double cost = distances.between(a, b);
+		return distances.isEuclidean() ? Math.max(1, STRAIGHT_LINE_SLACK * cost / Drone.MOVE_DISTANCE) : cost;
+	}
+
+	// Step 2: drops the sensor that's worth least per move saved until the tour fits
+	private static void dropUntilWithin(Tour tour, double[] prizes, double budget) {
+		var version = new int[prizes.length];  // Heap entries for a node are stale once its neighbours have changed
+		var heap = new PriorityQueue<double[]>((a, b) -> Double.compare(a[0], b[0]));
+		for (int node : tour.nodes()) {
+			heap.add(new double[] {tour.dropRatio(node, prizes), node, 0});
+		}
+		while (tour.length > budget && !heap.isEmpty()) {
+			var entry = heap.poll();
+			int node = (int) entry[1];
+			if (!tour.contains(node) || entry[2] != version[node]) {
+				continue;
+			}
+			int previous = tour.previous(node);
+			int next = tour.next(node);
+			tour.remove(node);
+			for (int neighbour : new int[] {previous, next}) {
+				if (neighbour != 0) {
+					version[neighbour]++;
+					heap.add(new double[] {tour.dropRatio(neighbour, prizes), neighbour, version[neighbour]});
+				}
+			}
+		}
+	}
+
+	// Step 3: puts back the sensors worth most per extra move, while the tour still fits
+	// Returns true if any sensor was put back
+	private static boolean insertWhileWithin(Tour tour, double[] prizes, double budget, NeighbourLists neighbours) {
+		var heap = new PriorityQueue<double[]>((a, b) -> Double.compare(b[0], a[0]));
+		for (int node = 1; node < prizes.length; node++) {
+			if (!tour.contains(node)) {
+				heap.add(new double[] {insertRatio(tour, node, prizes, neighbours), node});
+			}
+		}
+		boolean inserted = false;
+		while (!heap.isEmpty()) {
+			var entry = heap.poll();
+			int node = (int) entry[1];
+			// The tour may have changed since the ratio was worked out, so check it again before trusting it
+			double ratio = insertRatio(tour, node, prizes, neighbours);
+			if (ratio < entry[0]) {
+				if (ratio > 0) {
+					heap.add(new double[] {ratio, node});
+				}
+				continue;
+			}
+			int after = bestInsertionPoint(tour, node, neighbours);
+			if (after == -1 || tour.length + tour.insertionCost(node, after) > budget) {
+				continue;  // Doesn't fit anywhere (it might once the tour is re-optimised)
+			}
+			tour.insertAfter(node, after);
+			inserted = true;
+		}
+		return inserted;
+	}
+
+	// Prize per extra move of putting the node back in its cheapest place (0 if there's nowhere to put it)
+	private static double insertRatio(Tour tour, int node, double[] prizes, NeighbourLists neighbours) {
+		int after = bestInsertionPoint(tour, node, neighbours);
+		if (after == -1) {
+			return 0;
+		}
+		return prizes[node] / Math.max(tour.insertionCost(node, after), 1e-12);
+	}
+
+	// Returns the tour node to insert node after that adds the least to the tour, trying either side of node's nearest
+	// neighbours that are in the tour (and the start point, so there's always somewhere). -1 if the node can't go anywhere
+	private static int bestInsertionPoint(Tour tour, int node, NeighbourLists neighbours) {
+		int best = 0;
+		double bestCost = tour.insertionCost(node, 0);
+		for (int i = 0; i < neighbours.count(); i++) {
+			int neighbour = neighbours.get(node, i);
+			if (neighbour == 0 || !tour.contains(neighbour)) {
+				continue;
+			}
+			for (int after : new int[] {neighbour, tour.previous(neighbour)}) {
+				double cost = tour.insertionCost(node, after);
+				if (cost < bestCost) {
+					best = after;
+					bestCost = cost;
+				}
+			}
+		}
+		return Double.isFinite(bestCost) ? best : -1;
+	}
+
+	// Step 4: plans the chosen sensors again with the optimiser, keeping the result if it's shorter
+	// Returns true if it was
+	private static boolean reoptimise(Tour tour, Point start, List<Sensor> sensors, RoutePlanner planner) {
+		var nodes = tour.nodes();
+		if (nodes.isEmpty()) {
+			return false;
+		}
+		var chosen = new ArrayList<Sensor>(nodes.size());
+		for (int node : nodes) {
+			chosen.add(sensors.get(node - 1));
+		}
+		var replanned = planner.planEverySensor(start, chosen);
+		var replannedNodes = nodesOf(replanned.getRoute(), sensors);
+		var replannedTour = new Tour(tour.distances, replannedNodes);
+		if (replannedTour.length >= tour.length - 1e-12) {
+			return false;
+		}
+		tour.replaceWith(replannedTour);
+		return true;
+	}
+
+	// The DistanceMatrix node of each sensor in the route (sensor i of sensors is node i+1)
+	private static List<Integer> nodesOf(List<Sensor> route, List<Sensor> sensors) {
+		var nodeOf = new IdentityHashMap<Sensor, Integer>();
+		for (int i = 0; i < sensors.size(); i++) {
+			nodeOf.put(sensors.get(i), i + 1);
+		}
+		var nodes = new ArrayList<Integer>(route.size());
+		for (var sensor : route) {
+			nodes.add(nodeOf.get(sensor));
+		}
+		return nodes;
+	}
+
+	// A tour from the start point (node 0) round some of the nodes and back, as a doubly linked list so that nodes can be
+	// removed and inserted in constant time, with its length (in estimated moves) kept up to date
+	private static class Tour {
+
+		private final DistanceMatrix distances;
+		private int[] next;
+		private int[] previous;
+		private boolean[] inTour;
+		private double length;
+
+		Tour(DistanceMatrix distances, List<Integer> nodes) {
+			this.distances = distances;
+			link(nodes);
+		}
+
+		private void link(List<Integer> nodes) {
+			int size = distances.size();
+			next = new int[size];
+			previous = new int[size];
+			inTour = new boolean[size];
+			inTour[0] = true;
+			length = 0;
+			int last = 0;
+			for (int node : nodes) {
+				next[last] = node;
+				previous[node] = last;
+				inTour[node] = true;
+				length += moves(last, node);
+				last = node;
+			}
+			next[last] = 0;
+			previous[0] = last;
+			length += moves(last, 0);
+		}
+
+		private double moves(int a, int b) {
+			return estimatedMoves(distances, a, b);
+		}
+
+		// The tour's length in the units the route was planned in
+		double plannedLength() {
+			double plannedLength = 0;
+			for (int node = 0; ; node = next[node]) {
+				plannedLength += distances.between(node, next[node]);
+				if (next[node] == 0) {
+					return plannedLength;
+				}
+			}
+		}
+
+		void replaceWith(Tour other) {
+			link(other.nodes());
+		}
+
+		boolean contains(int node) {
+			return inTour[node];
+		}
+
+		int next(int node) {
+			return next[node];
+		}
+
+		int previous(int node) {
+			return previous[node];
+		}
+
+		// The nodes in the order they are visited (without the start point)
+		List<Integer> nodes() {
+			var nodes = new ArrayList<Integer>();
+			for (int node = next[0]; node != 0; node = next[node]) {
+				nodes.add(node);
+			}
+			return nodes;
+		}
+
+		// Prize per move saved by dropping the node (infinite if dropping it saves nothing, so it's dropped last)
+		double dropRatio(int node, double[] prizes) {
+			int before = previous[node];
+			int after = next[node];
+			double saving = moves(before, node) + moves(node, after) - moves(before, after);
+			return (saving > 0) ? prizes[node] / saving : Double.POSITIVE_INFINITY;
+		}
+
+		void remove(int node) {
+			int before = previous[node];
+			int after = next[node];
+			length -= moves(before, node) + moves(node, after) - moves(before, after);
+			next[before] = after;
+			previous[after] = before;
+			inTour[node] = false;
+		}
+
+		// How much longer the tour gets if node goes between after and the node after it
+		double insertionCost(int node, int after) {
+			int following = next[after];
+			return moves(after, node) + moves(node, following) - moves(after, following);
+		}
+
+		void insertAfter(int node, int after) {
+			length += insertionCost(node, after);
+			int following = next[after];
+			next[after] = node;
+			previous[node] = after;
+			next[node] = following;
+			previous[following] = node;
+			inTour[node] = true;
+		}
+
+	}
+
+}
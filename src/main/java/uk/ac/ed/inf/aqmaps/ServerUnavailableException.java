@@ -0,0 +1,17 @@
+package uk.ac.ed.inf.aqmaps;
+
+// Thrown when the web server can't be reached at all, or has failed so often lately that requests to it are
+// being turned away without being sent (see CircuitBreaker)
+public class ServerUnavailableException extends DataRetrievalException {
+
+	private static final long serialVersionUID = 1L;
+
+	public ServerUnavailableException(String message) {
+		super(message);
+	}
+	
+	public ServerUnavailableException(String message, Throwable cause) {
+		super(message, cause);
+	}
+	
+}
@@ -0,0 +1,120 @@
+package uk.ac.ed.inf.aqmaps;
+
+// Uniform grid over a set of items with bounding boxes (no-fly-zone edges or whole no-fly-zones)
+// Each item is listed in every cell its bounding box overlaps, so anything that touches a region
+// is guaranteed to be listed in at least one of the cells that region overlaps
+// Cells are stored in one flat array: the items in cell c are item(firstItem(c)) up to item(endItem(c) - 1)
+class SpatialGrid {
+
+	// Stops a huge area (or tiny cell size) from making a grid that doesn't fit in memory
+	private static final int MAX_CELLS = 1 << 20;
+
+	private final double west;
+	private final double south;
+	private final double east;
+	private final double north;
+	private final double cellSize;
+	private final int columns;
+	private final int rows;
+
+	private final int[] cellStarts;
+	private final int[] cellItems;
+
+	// Creates a grid over items where item i has the bounding box (minLongs[i], minLats[i]) to (maxLongs[i], maxLats[i])
+	// Cells are cellSize wide, unless that would need more than MAX_CELLS cells
+	public SpatialGrid(double[] minLongs, double[] minLats, double[] maxLongs, double[] maxLats, double cellSize) {
+		int itemCount = minLongs.length;
+
+		// The grid only needs to cover the items
+		double minLong = Double.MAX_VALUE;
+		double minLat = Double.MAX_VALUE;
+		double maxLong = -Double.MAX_VALUE;
+		double maxLat = -Double.MAX_VALUE;
+		for (int i = 0; i < itemCount; i++) {
+			minLong = Math.min(minLong, minLongs[i]);
+			minLat = Math.min(minLat, minLats[i]);
+			maxLong = Math.max(maxLong, maxLongs[i]);
+			maxLat = Math.max(maxLat, maxLats[i]);
+		}
+		west = minLong;
+		south = minLat;
+		east = maxLong;
+		north = maxLat;
+
+		if (itemCount == 0) {
+			this.cellSize = cellSize;
+			columns = 0;
+			rows = 0;
+			cellStarts = new int[1];
+			cellItems = new int[0];
+			return;
+		}
+
+		double width = east - west;
+		double height = north - south;
+		while ((width / cellSize + 1) * (height / cellSize + 1) > MAX_CELLS) {
+			cellSize *= 2;
+		}
+		this.cellSize = cellSize;
+		columns = (int) (width / cellSize) + 1;
+		rows = (int) (height / cellSize) + 1;
+
+		// First pass counts how many items go in each cell, second pass fills them in
+		cellStarts = new int[columns * rows + 1];
+		for (int i = 0; i < itemCount; i++) {
+			for (int r = rowOf(minLats[i]); r <= rowOf(maxLats[i]); r++) {
+				for (int c = columnOf(minLongs[i]); c <= columnOf(maxLongs[i]); c++) {
+					cellStarts[r*columns + c + 1] += 1;
+				}
+			}
+		}
+		for (int cell = 0; cell < columns * rows; cell++) {
+			cellStarts[cell + 1] += cellStarts[cell];
+		}
+		cellItems = new int[cellStarts[columns * rows]];
+		var filled = new int[columns * rows];
+		for (int i = 0; i < itemCount; i++) {
+			for (int r = rowOf(minLats[i]); r <= rowOf(maxLats[i]); r++) {
+				for (int c = columnOf(minLongs[i]); c <= columnOf(maxLongs[i]); c++) {
+					int cell = r*columns + c;
+					cellItems[cellStarts[cell] + filled[cell]++] = i;
+				}
+			}
+		}
+	}
+
+	// Returns true if the box from (minLong, minLat) to (maxLong, maxLat) overlaps the grid at all
+	// If it doesn't, no item can touch the box
+	public boolean overlaps(double minLong, double minLat, double maxLong, double maxLat) {
+		return columns > 0 && maxLong >= west && minLong <= east && maxLat >= south && minLat <= north;
+	}
+
+	// Returns the column containing the longitude (clamped to the grid)
+	public int columnOf(double longitude) {
+		int column = (int) ((longitude - west) / cellSize);
+		return Math.max(0, Math.min(column, columns - 1));
+	}
+
+	// Returns the row containing the latitude (clamped to the grid)
+	public int rowOf(double latitude) {
+		int row = (int) ((latitude - south) / cellSize);
+		return Math.max(0, Math.min(row, rows - 1));
+	}
+
+	public int cellAt(int row, int column) {
+		return row*columns + column;
+	}
+
+	public int firstItem(int cell) {
+		return cellStarts[cell];
+	}
+
+	public int endItem(int cell) {
+		return cellStarts[cell + 1];
+	}
+
+	public int item(int i) {
+		return cellItems[i];
+	}
+
+}
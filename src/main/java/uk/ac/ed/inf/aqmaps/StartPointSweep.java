@@ -0,0 +1,224 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import com.mapbox.geojson.BoundingBox;
+import com.mapbox.geojson.Point;
+
+// Monte Carlo sweep over start points: plans and flies a route from each of many random start points on each date,
+// to see how much the moves used (and whether the drone makes it back at all) depend on where it starts
+// Every flight is independent, so they're all run in parallel on the fork/join pool. Nothing is written to disk,
+// each flight just keeps its move count, whether it made it back and how many sensors it missed
+class StartPointSweep {
+
+	private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+
+	// How many random points may be drawn for each start point wanted before giving up on the area
+	private static final int MAX_DRAWS_PER_START_POINT = 1000;
+
+	// How many of the best and worst start points the report lists
+	private static final int START_POINTS_LISTED = 5;
+
+	private final NoFlyZoneChecker noFlyZoneChecker;
+	private final DetourPlanner detourPlanner;
+	private final RoutePlanner planner;
+	private final ReplanningHook replanningHook;
+
+	public StartPointSweep(NoFlyZoneChecker noFlyZoneChecker, DetourPlanner detourPlanner, RoutePlanner planner, ReplanningHook replanningHook) {
+		this.noFlyZoneChecker = noFlyZoneChecker;
+		this.detourPlanner = detourPlanner;
+		this.planner = planner;
+		this.replanningHook = replanningHook;
+	}
+
+	// Returns count random start points in the confinement area (the same ones every time for the same seed)
+	// Points the drone couldn't take off from (inside a no-fly-zone, or boxed in) are drawn again
+	// Throws IllegalArgumentException if too few points can be taken off from (e.g. the area is all no-fly-zones)
+	public static List<Point> randomStartPoints(int count, long seed, BoundingBox confinementArea, NoFlyZoneChecker noFlyZoneChecker) {
+		var random = new Random(seed);
+		var startPoints = new ArrayList<Point>(count);
+		long maxDraws = (long) count * MAX_DRAWS_PER_START_POINT;
+		for (long draws = 0; startPoints.size() < count; draws++) {
+			if (draws == maxDraws) {
+				throw new IllegalArgumentException(String.format(
+						"Only found %d of %d start points the drone can take off from in %d tries", startPoints.size(), count, maxDraws));
+			}
+			var point = Point.fromLngLat(
+					confinementArea.west() + random.nextDouble() * (confinementArea.east() - confinementArea.west()),
+					confinementArea.south() + random.nextDouble() * (confinementArea.north() - confinementArea.south()));
+			if (canFlyAwayFrom(point, noFlyZoneChecker)) {
+				startPoints.add(point);
+			}
+		}
+		return startPoints;
+	}
+
+	private static boolean canFlyAwayFrom(Point point, NoFlyZoneChecker noFlyZoneChecker) {
+		if (noFlyZoneChecker.isInNoFlyZone(point)) {
+			return false;
+		}
+		for (int bearing = 0; bearing < 360; bearing += 10) {
+			if (noFlyZoneChecker.moveIsLegal(point, bearing)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Plans and flies a route from every start point on every date, returning a summary of how the flights went
+	public Report run(Map<LocalDate, List<Sensor>> sensorsByDate, List<Point> startPoints) {
+		var dates = new ArrayList<>(sensorsByDate.keySet());
+		var outcomes = new Outcome[dates.size() * startPoints.size()];
+		long startTime = System.nanoTime();
+		IntStream.range(0, outcomes.length).parallel().forEach(flight -> {
+			int dateIndex = flight / startPoints.size();
+			int startIndex = flight % startPoints.size();
+			outcomes[flight] = fly(dateIndex, startIndex, sensorsByDate.get(dates.get(dateIndex)), startPoints.get(startIndex));
+		});
+		return new Report(dates, startPoints, outcomes, System.nanoTime() - startTime);
+	}
+
+	private Outcome fly(int dateIndex, int startIndex, List<Sensor> sensors, Point start) {
+		var plannedRoute = planner.plan(start, sensors);
+		var drone = new Drone(start);
+		var pilot = Pilot.forSimulation(drone, noFlyZoneChecker, detourPlanner);
+		pilot.setReplanningHook(replanningHook);
+		pilot.markSkipped(plannedRoute.getSkipped());
+		boolean completed = pilot.followRoute(plannedRoute.getRoute());
+
+		int sensorsMissed = 0;
+		for (boolean visited : pilot.getSensorsVisited().values()) {
+			if (!visited) {
+				sensorsMissed++;
+			}
+		}
+		return new Outcome(dateIndex, startIndex, drone.getTimesMoved(), completed, sensorsMissed);
+	}
+
+	// How one flight of the sweep went
+	private static class Outcome {
+
+		final int dateIndex;
+		final int startIndex;
+		final int moves;
+		final boolean completed;
+		final int sensorsMissed;
+
+		Outcome(int dateIndex, int startIndex, int moves, boolean completed, int sensorsMissed) {
+			this.dateIndex = dateIndex;
+			this.startIndex = startIndex;
+			this.moves = moves;
+			this.completed = completed;
+			this.sensorsMissed = sensorsMissed;
+		}
+	}
+
+	// The results of a sweep, summed up over every flight, over each date, and over each start point
+	static class Report {
+
+		private final List<LocalDate> dates;
+		private final List<Point> startPoints;
+		private final Outcome[] outcomes;
+		private final long sweepNanos;
+
+		private Report(List<LocalDate> dates, List<Point> startPoints, Outcome[] outcomes, long sweepNanos) {
+			this.dates = dates;
+			this.startPoints = startPoints;
+			this.outcomes = outcomes;
+			this.sweepNanos = sweepNanos;
+		}
+
+		public long getFailures() {
+			return Arrays.stream(outcomes).filter(outcome -> !outcome.completed).count();
+		}
+
+		// Returns the summary report, one line per statistic
+		public String summary() {
+			var lines = new ArrayList<String>();
+			double seconds = sweepNanos / 1e9;
+			long failures = getFailures();
+			lines.add(String.format("Swept %d start points over %d dates: %d flights in %.1fs (%.0f flights/s)",
+					startPoints.size(), dates.size(), outcomes.length, seconds, outcomes.length / seconds));
+			lines.add(String.format("Returned to the start: %d (%.1f%%), failed: %d",
+					outcomes.length - failures, 100.0 * (outcomes.length - failures) / outcomes.length, failures));
+			lines.add(String.format("Moves used (failed flights count as all %d): %s", Drone.MAX_MOVES, moveStatistics(List.of(outcomes))));
+			lines.add(sensorsMissedLine(List.of(outcomes)));
+
+			lines.add("By date:");
+			var byDate = Arrays.stream(outcomes).collect(Collectors.groupingBy(outcome -> outcome.dateIndex));
+			for (int i = 0; i < dates.size(); i++) {
+				var dateOutcomes = byDate.get(i);
+				lines.add(String.format("  %s: %s, %d failed, %d sensors missed", dates.get(i).format(DATE_FORMAT),
+						moveStatistics(dateOutcomes), failures(dateOutcomes), sensorsMissed(dateOutcomes)));
+			}
+
+			// Start points are ranked by their mean moves over every date (counted the same way, see movesCounted)
+			var byStart = Arrays.stream(outcomes).collect(Collectors.groupingBy(outcome -> outcome.startIndex));
+			var ranked = new ArrayList<>(byStart.keySet());
+			ranked.sort(Comparator.comparingDouble(startIndex -> meanMoves(byStart.get(startIndex))));
+			int listed = Math.min(START_POINTS_LISTED, ranked.size());
+			lines.add("Best start points (fewest moves on average):");
+			for (int i = 0; i < listed; i++) {
+				lines.add(startPointLine(ranked.get(i), byStart.get(ranked.get(i))));
+			}
+			lines.add("Worst start points (most moves on average):");
+			for (int i = ranked.size() - 1; i >= ranked.size() - listed; i--) {
+				lines.add(startPointLine(ranked.get(i), byStart.get(ranked.get(i))));
+			}
+			return String.join(System.lineSeparator(), lines);
+		}
+
+		private String startPointLine(int startIndex, List<Outcome> startOutcomes) {
+			var point = startPoints.get(startIndex);
+			return String.format("  %.6f %.6f (latitude, longitude): mean %.1f moves, %d failed, %d sensors missed",
+					point.latitude(), point.longitude(), meanMoves(startOutcomes), failures(startOutcomes), sensorsMissed(startOutcomes));
+		}
+
+		// Every statistic is of the same moves (see movesCounted), so the mean and the percentiles can be compared
+		private static String moveStatistics(List<Outcome> outcomes) {
+			var moves = outcomes.stream().mapToInt(StartPointSweep.Report::movesCounted).sorted().toArray();
+			return String.format("mean %.1f, min %d, median %d, 95th percentile %d, max %d",
+					Arrays.stream(moves).average().orElse(0), moves[0], percentile(moves, 0.5), percentile(moves, 0.95), moves[moves.length - 1]);
+		}
+
+		private static String sensorsMissedLine(List<Outcome> outcomes) {
+			long flightsMissing = outcomes.stream().filter(outcome -> outcome.sensorsMissed > 0).count();
+			return String.format("Sensors missed: %d in %d flights (%.2f per flight)",
+					sensorsMissed(outcomes), flightsMissing, (double) sensorsMissed(outcomes) / outcomes.size());
+		}
+
+		private static double meanMoves(List<Outcome> outcomes) {
+			return outcomes.stream().mapToInt(StartPointSweep.Report::movesCounted).average().orElse(0);
+		}
+
+		// The moves a flight counts as using in the statistics: a failed flight didn't do the job however few moves it
+		// made before getting stuck, so it counts as using every move rather than making the numbers look better
+		private static int movesCounted(Outcome outcome) {
+			return outcome.completed ? outcome.moves : Drone.MAX_MOVES;
+		}
+
+		private static long failures(List<Outcome> outcomes) {
+			return outcomes.stream().filter(outcome -> !outcome.completed).count();
+		}
+
+		private static long sensorsMissed(List<Outcome> outcomes) {
+			return outcomes.stream().mapToLong(outcome -> outcome.sensorsMissed).sum();
+		}
+
+		// Nearest-rank percentile (0 to 1) of the sorted values
+		private static int percentile(int[] sortedValues, double percentile) {
+			int index = (int) Math.ceil(percentile * sortedValues.length) - 1;
+			return sortedValues[Math.max(index, 0)];
+		}
+	}
+
+}
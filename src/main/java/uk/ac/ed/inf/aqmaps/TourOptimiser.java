@@ -0,0 +1,29 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.List;
+import java.util.Optional;
+
+// A local search that shortens a tour (see FlightPlanner for what a tour looks like)
+// Implementations can be swapped in to trade planning time for route quality
+interface TourOptimiser {
+
+	// Every optimiser that can be picked by name (e.g. with the --planner option)
+	List<TourOptimiser> ALL = List.of(
+			new TwoOptOptimiser(),
+			new OrOptOptimiser(),
+			LinKernighanOptimiser.threeOpt(),
+			LinKernighanOptimiser.linKernighan());
+
+	// Improves the tour in place, returning the number of improving moves made
+	int optimise(int[] tour, DistanceMatrix distances);
+
+	String getName();
+
+	// Returns the optimiser with the provided name, if there is one
+	static Optional<TourOptimiser> named(String name) {
+		return ALL.stream()
+				.filter(optimiser -> optimiser.getName().equals(name))
+				.findFirst();
+	}
+
+}
@@ -0,0 +1,61 @@
+package uk.ac.ed.inf.aqmaps;
+
+// Plain 2-opt: scans every pair of edges, reversing the sub-tour between them whenever that shortens the tour
+// Each pass is O(n^2), which is fine for a day's worth of sensors but slow for thousands of them
+class TwoOptOptimiser implements TourOptimiser {
+
+	private static final Metrics.Counter PASSES = Metrics.counter("aqmaps_two_opt_passes_total", "Full scans over every pair of edges made by 2-opt");
+
+	// Repeatedly makes 2-opt moves on the tour (in place) until there are none left that shorten it
+	@Override
+	public int optimise(int[] tour, DistanceMatrix distances) {
+		int moves = 0;
+		boolean improved = true;
+		while (improved) {
+			improved = false;
+			PASSES.increment();
+			// Unlike restarting from the beginning after every move, carrying on scanning finds many moves per pass
+			for (int i = 1; i <= tour.length - 3; i++) {
+				for (int j = i+1; j <= tour.length - 2; j++) {          // i-j (inclusive) define the sub-path
+					if (reversalGain(tour, i, j, distances) > 0) {      // Does reversing the sub-path shorten the path's length?
+						reverse(tour, i, j);                            // Then reverse the sub-path
+						moves += 1;
+						improved = true;
+					}
+				}
+			}
+		}
+		return moves;
+	}
+
+	@Override
+	public String getName() {
+		return "2-opt";
+	}
+
+	// Returns how much shorter the tour gets if the sub-tour i-j (inclusive) is reversed (negative if it gets longer)
+	private static double reversalGain(int[] tour, int i, int j, DistanceMatrix distances) {
+		int beforeStart = tour[i - 1];  // node right before the beginning of the sub-tour
+		int start = tour[i];            // node at the beginning of the sub-tour
+		int end = tour[j];              // node at the end of the sub-tour
+		int afterEnd = tour[j + 1];     // node right after the end of the sub-tour
+
+		// We don't have to evaluate the entire tour length, just the connections at the start and end
+		double lengthBefore = distances.between(beforeStart, start) + distances.between(end, afterEnd);  // before 2-opt move
+		double lengthAfter = distances.between(beforeStart, end) + distances.between(start, afterEnd);   // after 2-opt move
+
+		return lengthBefore - lengthAfter;
+	}
+
+	// Reverses the sub-tour i-j (inclusive) in place
+	private static void reverse(int[] tour, int i, int j) {
+		while (i < j) {
+			int temp = tour[i];
+			tour[i] = tour[j];
+			tour[j] = temp;
+			i++;
+			j--;
+		}
+	}
+
+}
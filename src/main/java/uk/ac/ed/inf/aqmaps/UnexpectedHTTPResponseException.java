@@ -1,6 +1,6 @@
 package uk.ac.ed.inf.aqmaps;
 
-public class UnexpectedHTTPResponseException extends Exception {
+public class UnexpectedHTTPResponseException extends DataRetrievalException {
 
 	private static final long serialVersionUID = 1L;
 
@@ -0,0 +1,284 @@
+package uk.ac.ed.inf.aqmaps;
+
+import static uk.ac.ed.inf.aqmaps.LookupPointUtils.bearingFromTo;
+import static uk.ac.ed.inf.aqmaps.LookupPointUtils.moveDestination;
+import static uk.ac.ed.inf.aqmaps.PointUtils.distanceBetween;
+import static uk.ac.ed.inf.aqmaps.PointUtils.mod360;
+import static uk.ac.ed.inf.aqmaps.PointUtils.inRange;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.mapbox.geojson.Point;
+
+// The original way around obstructions: follow the obstruction's wall clockwise and anti-clockwise at the same time,
+// stopping each branch once it can head straight for the goal again, and take whichever branch looks shorter
+// Quick, but greedy, so it can take long detours (or get stuck) around awkwardly shaped no-fly-zones
+// Each branch is a (direction, scan step) pair, and the branches are evaluated in parallel. A branch is cancelled as soon
+// as another branch has finished with a heuristic it can no longer beat (a branch's heuristic only grows as it expands)
+class WallFollowerDetourPlanner implements DetourPlanner {
+
+	private static final int CORES = Runtime.getRuntime().availableProcessors();
+
+	private static final Metrics.Distribution BRANCH_MOVES = Metrics.distribution("aqmaps_wall_follower_branch_moves", "Moves explored by each wall follower search branch");
+	private static final Metrics.Counter CANCELLED_BRANCHES = Metrics.counter("aqmaps_wall_follower_cancelled_branches_total", "Wall follower branches given up on because another had already beaten them");
+
+	// Shared by every planner, the branches are short-lived so there's no point having more threads than cores
+	private static final ExecutorService BRANCH_EXECUTOR = Executors.newFixedThreadPool(CORES, runnable -> {
+		var thread = new Thread(runnable, "wall-follower-branch");
+		thread.setDaemon(true);  // Don't keep the program alive once main finishes
+		return thread;
+	});
+
+	private final String name;
+	// The scan steps (degrees) to try, each one clockwise and anti-clockwise
+	private final int[] scanSteps;
+
+	// The classic wall follower, one branch each way scanning 10 degrees at a time
+	WallFollowerDetourPlanner() {
+		this("wall-follower", 10);
+	}
+
+	WallFollowerDetourPlanner(String name, int... scanSteps) {
+		this.name = name;
+		this.scanSteps = scanSteps;
+	}
+
+	@Override
+	public List<Integer> pathAround(Point start, Waypoint goal, int movesLeft, NoFlyZoneChecker noFlyZoneChecker) {
+		// Anti-clockwise comes first so that ties go its way (the choice the wall follower has always made)
+		var branches = new ArrayList<SearchBranch>();
+		var race = new BranchRace(2 * scanSteps.length);
+		for (int step : scanSteps) {
+			branches.add(new SearchBranch(start, goal, false, step, noFlyZoneChecker, race, branches.size()));
+			branches.add(new SearchBranch(start, goal, true, step, noFlyZoneChecker, race, branches.size()));
+		}
+
+		// Fully explore every branch until they either find a way around the obstruction, get stuck or are cancelled
+		// The last branch runs on this thread rather than sitting idle waiting for the others
+		// With only one core handing branches to another thread just adds overhead, so they all run here one after the other
+		// (the later branches can still be cancelled by the earlier ones)
+		var futures = new ArrayList<Future<?>>();
+		for (var branch : branches.subList(0, branches.size() - 1)) {
+			if (CORES > 1) {
+				futures.add(BRANCH_EXECUTOR.submit(branch::evaluate));
+			} else {
+				branch.evaluate();
+			}
+		}
+		branches.get(branches.size() - 1).evaluate();
+		for (var future : futures) {
+			awaitBranch(future);
+		}
+
+		// Return the path of the completed branch with the lowest heuristic (the first one, if there's a tie)
+		// If every branch got stuck, we failed to compute a path around the obstruction
+		SearchBranch best = null;
+		for (var branch : branches) {
+			if (!branch.isStuck() && (best == null || branch.getHeuristic() < best.getHeuristic())) {
+				best = branch;
+			}
+		}
+		return (best == null) ? new ArrayList<Integer>() : best.getBearingsTaken();
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	private static void awaitBranch(Future<?> future) {
+		try {
+			future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while searching for a way around an obstruction", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Search branch failed", e.getCause());
+		}
+	}
+
+	// Keeps track of the heuristics of the branches that have finished, so the rest know when to give up
+	private static class BranchRace {
+
+		// Heuristic of each finished branch (as raw long bits), or NaN while it's still running (or if it got stuck)
+		private final AtomicLongArray finishedHeuristics;
+
+		BranchRace(int branchCount) {
+			finishedHeuristics = new AtomicLongArray(branchCount);
+			for (int i = 0; i < branchCount; i++) {
+				finishedHeuristics.set(i, Double.doubleToRawLongBits(Double.NaN));
+			}
+		}
+
+		void finish(int branch, double heuristic) {
+			finishedHeuristics.set(branch, Double.doubleToRawLongBits(heuristic));
+		}
+
+		// Returns true if a finished branch is guaranteed to be picked over this one, whose heuristic is at least lowerBound
+		// Ties go to the branch that comes first, so an earlier branch only needs to match the bound
+		boolean isBeaten(int branch, double lowerBound) {
+			for (int other = 0; other < finishedHeuristics.length(); other++) {
+				double heuristic = Double.longBitsToDouble(finishedHeuristics.get(other));
+				if (other < branch ? heuristic <= lowerBound : heuristic < lowerBound) {  // Always false for NaN
+					return true;
+				}
+			}
+			return false;
+		}
+
+	}
+
+	private static class SearchBranch {
+
+			// Current head of the search branch
+			private Point branchHead;
+
+			// The target waypoint for the branch
+			// Helps determine when to stop searching
+			private final Waypoint goal;
+
+			private boolean stuck = false;
+			private final boolean clockwise;
+			private final int scanStep;
+			
+			// Lets the branch give up early once another branch has found a better path
+			private final BranchRace race;
+			private final int index;
+
+			// List of bearings taken by the search branch
+			List<Integer> bearingsTaken = new ArrayList<>();
+			NoFlyZoneChecker noFlyZoneChecker;
+
+			public SearchBranch(Point startPoint, Waypoint goal, boolean clockwise, int scanStep, NoFlyZoneChecker noFlyZoneChecker,
+					BranchRace race, int index) {
+				this.branchHead = startPoint;
+				this.clockwise = clockwise;
+				this.scanStep = scanStep;
+				this.goal = goal;
+				this.noFlyZoneChecker = noFlyZoneChecker;
+				this.race = race;
+				this.index = index;
+			}
+
+			// Repeatedly expands the branch until it finishes or gets stuck
+			// Gives up once the branch is longer than the drone could ever fly (isStuck counts that as stuck),
+			// otherwise a branch circling something it can never get around would loop forever
+			// Also gives up (counting as stuck) once another branch has finished with a heuristic this one can't beat
+			public void evaluate() {
+				while (!stuck && bearingsTaken.size() <= Drone.MAX_MOVES) {
+					if (race.isBeaten(index, bearingsTaken.size()*Drone.MOVE_DISTANCE)) {
+						stuck = true;
+						CANCELLED_BRANCHES.increment();
+						break;
+					}
+					expand();
+					if (isFinished()) {
+						if (!isStuck()) {
+							race.finish(index, getHeuristic());
+						}
+						break;
+					}
+				}
+				BRANCH_MOVES.record(bearingsTaken.size());
+			}
+
+			// Tries to expand the search branch by one move (updating branchHead and bearingsTaken)
+			private void expand() {
+				int mostDirectBearing = bearingFromTo(branchHead, goal);
+
+				// We stop scanning if the first legal bearing we find is 180 degrees from the one we just took
+				int limit = bearingsTaken.isEmpty() ? mostDirectBearing : backtrackBearing();
+				int step =  clockwise ? scanStep : -scanStep;
+
+				// Scan for the first legal bearing
+				var legalBearing = bearingScan(mod360(mostDirectBearing + step), limit, step);
+				if (legalBearing.isPresent()) {
+					var newBearing = legalBearing.get();
+					branchHead = moveDestination(branchHead, newBearing);  // Update the branch head with the bearing
+					bearingsTaken.add(newBearing);                         // Remember which bearing we took so the drone can follow the same path later
+				} else {
+					stuck = true;
+				}
+			}
+
+			// Checks the legality of the moves with bearings in the range scanFrom-scanTo (step is the interval)
+			private Optional<Integer> bearingScan(int scanFrom, int scanTo, int step) {
+				// How far it is from scanFrom round to scanTo going in the direction of step
+				// With steps bigger than 10 the scan can jump over scanTo, so we stop once we've come that far instead of at scanTo
+				int scanRange = mod360((step > 0) ? scanTo - scanFrom : scanFrom - scanTo);
+				
+				// Check the legality of the moves with the bearings between scanFrom and scanTo
+				for (int offset = 0; offset < scanRange; offset += Math.abs(step)) {
+					int bearing = mod360(scanFrom + Integer.signum(step)*offset);
+					if (noFlyZoneChecker.moveIsLegal(branchHead, bearing)) {
+						return Optional.of(bearing);
+					}
+				}
+				return Optional.empty();
+			}
+
+			// Returns true if the branch has found a legal path around the obstruction
+			private boolean isFinished() {
+				// Obvious if we're stuck we're not finished
+				if (stuck) {
+					return false;
+				}
+
+				// FIRST
+				// Check if we're already in range (corner cutting for example)
+				if (inRange(branchHead, goal)) {
+					return true;
+				}
+
+				// SECOND
+				// Check if there is a move towards the waypoint that is legal
+				var bearingTowardsWaypoint = Pilot.mostDirectBearing(branchHead, goal, noFlyZoneChecker);
+				if (bearingTowardsWaypoint.isPresent()) {
+					var bearing = bearingTowardsWaypoint.get();
+					// Take it if it lands us in range of a sensor (end of section 3.3)
+					if (inRange(moveDestination(branchHead, bearing), goal)) {
+						bearingsTaken.add(bearing);
+						return true;
+					}
+
+					// If it doesn't, take it as long as it doesn't just move us back a step (also end of section 3.3)
+					if (bearing != backtrackBearing()) {
+						bearingsTaken.add(bearing);
+						return true;
+					}
+				}
+				// Otherwise, we're not finished
+				return false;
+			}
+
+			// Returns the bearing the branch last took - 180
+			private int backtrackBearing() {
+				int lastBearing = bearingsTaken.get(bearingsTaken.size() - 1);
+				return mod360(lastBearing - 180);
+			}
+
+			// Returns the length of the branch + the euclidean distance to the goal
+			public double getHeuristic() {
+				return stuck ? Double.MAX_VALUE : (bearingsTaken.size()*Drone.MOVE_DISTANCE) + distanceBetween(branchHead, goal.getPoint());
+			}
+
+			public List<Integer> getBearingsTaken() {
+				return bearingsTaken;
+			}
+
+			// Returns whether the branch was marked as stuck when evaluating it
+			// Always returns false if the branch gets too long
+			public boolean isStuck() {
+				return stuck ? stuck : (bearingsTaken.size() > Drone.MAX_MOVES);
+			}
+
+		}
+
+}
@@ -1,17 +1,24 @@
 package uk.ac.ed.inf.aqmaps;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.net.ConnectException;
+import java.io.InputStreamReader;
 import java.net.URI;
 import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
 import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.mapbox.geojson.FeatureCollection;
 import com.mapbox.geojson.Point;
 import com.mapbox.geojson.Polygon;
@@ -20,19 +27,38 @@ public class WebServer {
 	
 	private static WebServer singletonInstance;
 	
-	private String serverURL;
-	private String port;
+	private final String serverURL;
+	private final String port;
 	
-	private final HttpClient client = HttpClient.newHttpClient();
-	private static final int MAX_HTTP_REQUEST_ATTEMPTS = 10;
+	// Sends every request, retrying with backoff and giving up on the server for a while if it keeps failing
+	private final RetryingHttpClient client = new RetryingHttpClient(HttpClient.newHttpClient(), RetryPolicy.DEFAULT, new CircuitBreaker());
+	
+	// Gson instances are thread safe, so every response is parsed with this one
+	private static final Gson GSON = new Gson();
+	
+	// Reading given to sensors whose reading isn't a number (e.g. "null"), same as the drone gets from a flat battery
+	private static final double NO_READING = -1.0;
+	
+	// Limits how many what-3-words lookups can be in flight at once so we don't flood the server
+	private static final int MAX_CONCURRENT_LOOKUPS = 8;
+	private final Semaphore lookupPermits = new Semaphore(MAX_CONCURRENT_LOOKUPS);
+	
+	private static final Metrics.Counter HTTP_RESPONSE_BYTES = Metrics.counter("aqmaps_http_response_bytes_total", "Bytes of HTTP response bodies received");
+	private static final Metrics.Distribution HTTP_RESOURCE_SECONDS = Metrics.timer("aqmaps_http_resource_seconds", "Time to fetch one resource from the web server (including retries)");
+	private static final Metrics.Distribution JSON_PARSE_SECONDS = Metrics.timer("aqmaps_json_parse_seconds", "Time spent parsing JSON and GeoJSON responses");
+	private static final Metrics.Counter W3W_CACHE_HITS = Metrics.counter("aqmaps_w3w_cache_hits_total", "what-3-words addresses found in the cache");
+	
+	// Checked before making any request for data that rarely changes, null if caching is turned off
+	private volatile ResourceCache cache = null;
 	
 	private WebServer(String serverURL, String port) {
 		this.serverURL = serverURL;
 		this.port = port;
 	}
 	
-	// Returns the singleton instance of WebServer and sets its serverURL and port fields
-	public static WebServer getInstanceWithConfig(String serverURL, String port) {
+	// Returns the singleton instance of WebServer, created with serverURL and port the first time this is called
+	// Later calls get that same instance whatever they pass in, use create for a WebServer with a different config
+	public static synchronized WebServer getInstanceWithConfig(String serverURL, String port) {
 		// Create the singleton instance if it doesn't already exist
 		if (singletonInstance == null) {
 			singletonInstance = new WebServer(serverURL, port);
@@ -40,79 +66,268 @@ public class WebServer {
 		return singletonInstance;
 	}
 	
+	// Returns a new WebServer for serverURL and port, separate from the singleton and any other instance
+	// (each has its own connections, retry state and cache, so several servers can be used side by side)
+	public static WebServer create(String serverURL, String port) {
+		return new WebServer(serverURL, port);
+	}
+	
+	// Makes the web server check (and fill) the provided cache before requesting w3w addresses or no-fly-zones
+	void setCache(ResourceCache cache) {
+		this.cache = cache;
+	}
+	
 	// Returns a list of no-fly-zones as polygons defined in /buildings/no-fly-zones.geojson
-	public List<Polygon> getNoFlyZones() throws UnexpectedHTTPResponseException {
+	// Throws DataRetrievalException if they couldn't be retrieved (the subclass says why)
+	public List<Polygon> getNoFlyZones() throws DataRetrievalException {
+		if (cache != null) {
+			var cachedNoFlyZones = cache.getNoFlyZones();
+			if (cachedNoFlyZones.isPresent()) {
+				return cachedNoFlyZones.get();
+			}
+		}
+		
 		var geojsonData = getResourceAsString(String.format("%s:%s/buildings/no-fly-zones.geojson", serverURL, port));			
 		
+		long parseStart = Metrics.start();
 		var noFlyZones = new ArrayList<Polygon>();
 		for (var feature : FeatureCollection.fromJson(geojsonData).features()) {
 			noFlyZones.add((Polygon) feature.geometry());  // Grab the geometry of the no-fly-zones from their features
 		}	
+		JSON_PARSE_SECONDS.stop(parseStart);
+		if (cache != null) {
+			cache.putNoFlyZones(noFlyZones);
+		}
 		return noFlyZones;
 	}
 	
 	// Returns a list of Sensor objects created from the contents of the relevant /maps/YYYY/MM/DD/air-quality-data.json file
-	public List<Sensor> getSensors(String day, String month, String year) throws UnexpectedHTTPResponseException {
-		var sensorJson = getResourceAsString(String.format("%s:%s/maps/%s/%s/%s/air-quality-data.json", serverURL, port, year, month, day));
-		var jsonObjList = new Gson().fromJson(sensorJson, JsonObject[].class);  // array of sensors as jsonObjects
+	// The response is parsed straight from its bytes into the fields each Sensor needs (no String of the whole
+	// response and no JSON tree). The bytes are fetched in full first so that the request's timeout covers the body too
+	// Throws DataRetrievalException if they couldn't be retrieved (the subclass says why)
+	public List<Sensor> getSensors(String day, String month, String year) throws DataRetrievalException {
+		var pageURL = String.format("%s:%s/maps/%s/%s/%s/air-quality-data.json", serverURL, port, year, month, day);
+		var sensorFields = new ArrayList<SensorFields>();
+		long parseStart = Metrics.start();
+		try (var reader = GSON.newJsonReader(new InputStreamReader(new ByteArrayInputStream(getResourceAsBytes(pageURL)), StandardCharsets.UTF_8))) {
+			reader.beginArray();
+			while (reader.hasNext()) {
+				sensorFields.add(readSensorFields(reader));
+			}
+			reader.endArray();
+		} catch (IOException | IllegalStateException | NumberFormatException e) {  // Cut short, not JSON, or not the JSON we expected
+			throw new UnexpectedHTTPResponseException(
+					String.format("Sensor data for %s-%s-%s is malformed (%s)", day, month, year, e.getMessage()));
+		} finally {
+			JSON_PARSE_SECONDS.stop(parseStart);
+		}
+		
+		// Start all of the what-3-words lookups first so that they run concurrently rather than one after the other
+		var pointFutures = new ArrayList<CompletableFuture<Point>>();
+		for (var fields : sensorFields) {
+			pointFutures.add(getCoordinateFromWhat3WordsAddressAsync(fields.w3wAddress));
+		}
 		
 		var sensors = new ArrayList<Sensor>();
-		for (var jsonObj : jsonObjList) {
-			var w3wAddress = jsonObj.get("location").getAsString();
-			var point = getCoordinateFromWhat3WordsAddress(w3wAddress);
-			double battery = jsonObj.get("battery").getAsDouble();
-			double reading;
-			try {
-				// Cheating a wee bit by converting the readings to doubles before the drone or pilot see them
-				reading = Double.parseDouble(jsonObj.get("reading").getAsString());
-			} catch (NumberFormatException e) {  // Checking for NaN/Null/null etc.
-				reading = -1.0;
-			}
+		for (int i = 0; i < sensorFields.size(); i++) {  // Indexing both lists together keeps the sensors in their original order
+			var fields = sensorFields.get(i);
+			var point = awaitResource(pointFutures.get(i));
 			// Creating our Sensor objects from the json pollution sensor data
-			sensors.add(new Sensor(point, w3wAddress, battery, reading));
+			sensors.add(new Sensor(point, fields.w3wAddress, fields.battery, fields.reading));
+		}
+		if (cache != null) {
+			cache.save();  // Remember any addresses we had to look up for next time
 		}
 		return sensors;
 	}
-
-	// Returns the Point that the provided what-3-words address corresponds to
-	private Point getCoordinateFromWhat3WordsAddress(String w3wAddress) throws UnexpectedHTTPResponseException {
-		String w3wData = getResourceAsString(String.format("%s:%s/words/%s/details.json", serverURL, port, w3wAddress.replace('.', '/')));
-		var jsonObj = new Gson().fromJson(w3wData, JsonObject.class);
-		var coords = jsonObj.getAsJsonObject("coordinates");
-		return Point.fromLngLat(
-				coords.get("lng").getAsDouble(),
-				coords.get("lat").getAsDouble());
+	
+	// Reads one {"location": ..., "battery": ..., "reading": ...} object of air-quality-data.json (fields in any order)
+	private static SensorFields readSensorFields(JsonReader reader) throws IOException {
+		var fields = new SensorFields();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+				case "location":
+					fields.w3wAddress = reader.nextString();
+					break;
+				case "battery":
+					fields.battery = reader.nextDouble();  // Also accepts numbers written as strings
+					break;
+				case "reading":
+					fields.reading = readReading(reader);
+					break;
+				default:
+					reader.skipValue();
+			}
+		}
+		reader.endObject();
+		if (fields.w3wAddress == null) {
+			throw new IOException("sensor has no location");
+		}
+		return fields;
 	}
 	
-	// Returns the contents of a specified file on the web server as a string
-	private String getResourceAsString(String pageURL) throws UnexpectedHTTPResponseException {
-		var request = HttpRequest.newBuilder().uri(URI.create(pageURL)).build();
-		HttpResponse<String> response = null;
+	// Cheating a wee bit by converting the readings to doubles before the drone or pilot see them
+	// Readings are strings, but anything else that isn't a number (null, a missing reading) also becomes NO_READING
+	private static double readReading(JsonReader reader) throws IOException {
+		var token = reader.peek();
+		if (token == JsonToken.NUMBER) {
+			return reader.nextDouble();
+		}
+		if (token == JsonToken.STRING) {
+			return parseReading(reader.nextString());
+		}
+		reader.skipValue();
+		return NO_READING;
+	}
+	
+	// Parses the reading the way Double.parseDouble would, but returns NO_READING for anything that isn't a number
+	// (e.g. "null") rather than throwing, since a lot of sensors have no reading and exceptions aren't cheap
+	// "NaN" is a number as far as parseDouble is concerned, so it stays NaN. Hexadecimal readings aren't supported
+	static double parseReading(String text) {
+		var trimmed = text.trim();
+		return looksLikeDecimal(trimmed) ? Double.parseDouble(trimmed) : NO_READING;
+	}
+	
+	// Checks for [sign] (NaN | Infinity | digits [. digits] [exponent] [f/d suffix]), where there's at least one digit
+	// before or after the point. Everything this accepts Double.parseDouble does too
+	private static boolean looksLikeDecimal(String text) {
+		int i = 0;
+		int length = text.length();
+		if (i < length && (text.charAt(i) == '+' || text.charAt(i) == '-')) {
+			i++;
+		}
+		if (text.startsWith("NaN", i)) {
+			return i + 3 == length;
+		}
+		if (text.startsWith("Infinity", i)) {
+			return i + 8 == length;
+		}
+		int digitsStart = i;
+		i = skipDigits(text, i);
+		int digits = i - digitsStart;
+		if (i < length && text.charAt(i) == '.') {
+			int fractionStart = i + 1;
+			i = skipDigits(text, fractionStart);
+			digits += i - fractionStart;
+		}
+		if (digits == 0) {
+			return false;
+		}
+		if (i < length && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+			i++;
+			if (i < length && (text.charAt(i) == '+' || text.charAt(i) == '-')) {
+				i++;
+			}
+			int exponentStart = i;
+			i = skipDigits(text, i);
+			if (i == exponentStart) {
+				return false;
+			}
+		}
+		if (i < length && "fFdD".indexOf(text.charAt(i)) != -1) {
+			i++;
+		}
+		return i == length;
+	}
+	
+	private static int skipDigits(String text, int i) {
+		while (i < text.length() && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+			i++;
+		}
+		return i;
+	}
+	
+	// The fields of a sensor read from air-quality-data.json, before its what-3-words address has been looked up
+	private static class SensorFields {
+		String w3wAddress;
+		double battery;
+		double reading = NO_READING;  // In case the sensor has no reading field at all
+	}
+
+	// Starts looking up the Point that the provided what-3-words address corresponds to
+	// Blocks while MAX_CONCURRENT_LOOKUPS lookups are already in flight, the permit is handed back once the lookup finishes
+	// Addresses that are already in the cache complete straight away without making a request
+	private CompletableFuture<Point> getCoordinateFromWhat3WordsAddressAsync(String w3wAddress) {
+		if (cache != null) {
+			var cachedPoint = cache.getCoordinate(w3wAddress);
+			if (cachedPoint.isPresent()) {
+				W3W_CACHE_HITS.increment();
+				return CompletableFuture.completedFuture(cachedPoint.get());
+			}
+		}
 		
-		int attempts = 0;  // counts how many more HTTP request attempts we have made
-		boolean fulfilled = false;
-		while (!fulfilled) {
-			try {
-				attempts += 1;
-				response = client.send(request, BodyHandlers.ofString());
-				fulfilled = true;
-			} catch (ConnectException e) {
-				System.out.printf("Fatal error: Unable to connect to %s at port %s. Exiting...%n", serverURL, port);
-				System.exit(1);
-			} catch (InterruptedException | IOException e) {
-				if (attempts == MAX_HTTP_REQUEST_ATTEMPTS) {  
-					System.out.println("Fatal error: Exceeded maximum number of request attempts. Exiting...");
-					System.exit(1);
-				} else {  // If our request gets interrupted somehow, retry
-					System.out.printf("Request failed. Retrying (%s/%s)...%n", attempts, MAX_HTTP_REQUEST_ATTEMPTS);
-				}
+		lookupPermits.acquireUninterruptibly();
+		var pageURL = String.format("%s:%s/words/%s/details.json", serverURL, port, w3wAddress.replace('.', '/'));
+		return getResourceAsStringAsync(pageURL)
+				.thenApply(w3wData -> {
+					long parseStart = Metrics.start();
+					var jsonObj = GSON.fromJson(w3wData, JsonObject.class);
+					JSON_PARSE_SECONDS.stop(parseStart);
+					var coords = jsonObj.getAsJsonObject("coordinates");
+					var point = Point.fromLngLat(
+							coords.get("lng").getAsDouble(),
+							coords.get("lat").getAsDouble());
+					if (cache != null) {
+						cache.putCoordinate(w3wAddress, point);
+					}
+					return point;
+				})
+				.whenComplete((point, exception) -> lookupPermits.release());
+	}
+	
+	// Waits for an asynchronous request to finish, rethrowing the DataRetrievalException if that's why it failed
+	private static <T> T awaitResource(CompletableFuture<T> future) throws DataRetrievalException {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof DataRetrievalException) {
+				throw (DataRetrievalException) e.getCause();
 			}
+			throw e;
 		}
-		if (response.statusCode() == 200) {
+	}
+	
+	// Asynchronous version of getResourceAsString
+	// Completes exceptionally with a DataRetrievalException if the file couldn't be retrieved
+	private CompletableFuture<String> getResourceAsStringAsync(String pageURL) {
+		long requestStart = Metrics.start();
+		return client.get(URI.create(pageURL), BodyHandlers.ofString()).thenApply(response -> {
+			HTTP_RESOURCE_SECONDS.stop(requestStart);
+			countResponseBytes(response.body());
 			return response.body();
-		} else {
-			throw new UnexpectedHTTPResponseException(
-					String.format("Fatal error: Did not receive HTTP status code 200 (got %d instead). Perhaps your date is invalid? Exiting...", response.statusCode()));
+		});
+	}
+	
+	// Returns the contents of a specified file on the web server as a string
+	private String getResourceAsString(String pageURL) throws DataRetrievalException {
+		var response = getResource(pageURL, BodyHandlers.ofString());
+		countResponseBytes(response.body());
+		return response.body();
+	}
+	
+	// Returns the contents of a specified file on the web server as bytes
+	private byte[] getResourceAsBytes(String pageURL) throws DataRetrievalException {
+		var body = getResource(pageURL, BodyHandlers.ofByteArray()).body();
+		HTTP_RESPONSE_BYTES.add(body.length);
+		return body;
+	}
+	
+	// Requests a specified file from the web server, handling its body with the provided handler
+	// Waits for the response, but the retries and backoff are all handled by the RetryingHttpClient
+	private <T> HttpResponse<T> getResource(String pageURL, BodyHandler<T> bodyHandler) throws DataRetrievalException {
+		long requestStart = Metrics.start();
+		try {
+			return awaitResource(client.get(URI.create(pageURL), bodyHandler));
+		} finally {
+			HTTP_RESOURCE_SECONDS.stop(requestStart);
+		}
+	}
+	
+	// Only works out the encoded size when metrics are on, it isn't free
+	private static void countResponseBytes(String body) {
+		if (Metrics.ENABLED) {
+			HTTP_RESPONSE_BYTES.add(body.getBytes(StandardCharsets.UTF_8).length);
 		}
 	}
 }